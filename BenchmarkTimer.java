@@ -0,0 +1,54 @@
+/**
+ * Times small pieces of work for the benchmark programs of the project.
+ * Every measurement is run once to warm up the JIT before it is timed.
+ */
+final class BenchmarkTimer {
+    /**
+     * Sink that keeps the JIT from discarding the measured work.
+     */
+    static volatile int sink;
+
+    /**
+     * A piece of work run repeatedly by a measurement.
+     */
+    interface Work {
+        /**
+         * Runs the work once.
+         *
+         * @return any value derived from the work.
+         */
+        int run();
+    }
+
+    /**
+     * No instances.
+     */
+    private BenchmarkTimer() {
+    }
+
+    /**
+     * Runs a piece of work for a time budget after a warm-up of the same
+     * length.
+     *
+     * @param budget the time budget in nanoseconds.
+     * @param work   the work to measure.
+     * @return the average time of one run in nanoseconds.
+     */
+    static double measure(long budget, Work work) {
+        int result = 0;
+        for (int pass = 0; ; pass++) {
+            long runs = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                result += work.run();
+                runs++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < budget);
+            if (pass == 1) {
+                sink = result;
+                return (double) elapsed / runs;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * A pure-Java implementation of the unkeyed BLAKE2s-256 hash function of
+ * RFC 7693. It works on 32-bit words only, which keeps it fast on the JVM
+ * without any native code.
+ */
+public class Blake2sHashFunction implements HashFunction {
+    /**
+     * The length in bytes of a digest.
+     */
+    private static final int DIGEST_LENGTH = 32;
+    /**
+     * The length in bytes of a message block.
+     */
+    private static final int BLOCK_LENGTH = 64;
+    /**
+     * The initialization vector, shared with SHA-256.
+     */
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A,
+            0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+    /**
+     * The message word permutation of each round.
+     */
+    private static final byte[][] SIGMA = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+            {11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+            {7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+            {9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+            {2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+            {12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+            {13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+            {6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+            {10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0}
+    };
+
+    @Override
+    public String id() {
+        return "BLAKE2s-256";
+    }
+
+    @Override
+    public int digestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public byte[] digest(byte[] input, int offset, int length) {
+        int[] h = IV.clone();
+        h[0] ^= 0x01010000 ^ DIGEST_LENGTH;
+        int[] m = new int[16];
+        int[] v = new int[16];
+        long counter = 0;
+        while (length > BLOCK_LENGTH) {
+            for (int i = 0; i < 16; i++) {
+                m[i] = readInt(input, offset + 4 * i);
+            }
+            counter += BLOCK_LENGTH;
+            compress(h, m, v, counter, false);
+            offset += BLOCK_LENGTH;
+            length -= BLOCK_LENGTH;
+        }
+        byte[] last = new byte[BLOCK_LENGTH];
+        System.arraycopy(input, offset, last, 0, length);
+        for (int i = 0; i < 16; i++) {
+            m[i] = readInt(last, 4 * i);
+        }
+        counter += length;
+        compress(h, m, v, counter, true);
+
+        byte[] out = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < 8; i++) {
+            out[4 * i] = (byte) h[i];
+            out[4 * i + 1] = (byte) (h[i] >>> 8);
+            out[4 * i + 2] = (byte) (h[i] >>> 16);
+            out[4 * i + 3] = (byte) (h[i] >>> 24);
+        }
+        return out;
+    }
+
+    /**
+     * Mixes a message block into the chained state.
+     *
+     * @param h       the chained state.
+     * @param m       the message block as little-endian words.
+     * @param v       scratch space for the working vector.
+     * @param counter the number of message bytes hashed so far.
+     * @param last    true if this is the final block.
+     */
+    private static void compress(int[] h, int[] m, int[] v, long counter, boolean last) {
+        System.arraycopy(h, 0, v, 0, 8);
+        System.arraycopy(IV, 0, v, 8, 8);
+        v[12] ^= (int) counter;
+        v[13] ^= (int) (counter >>> 32);
+        if (last) {
+            v[14] = ~v[14];
+        }
+        for (byte[] s : SIGMA) {
+            mix(v, 0, 4, 8, 12, m[s[0]], m[s[1]]);
+            mix(v, 1, 5, 9, 13, m[s[2]], m[s[3]]);
+            mix(v, 2, 6, 10, 14, m[s[4]], m[s[5]]);
+            mix(v, 3, 7, 11, 15, m[s[6]], m[s[7]]);
+            mix(v, 0, 5, 10, 15, m[s[8]], m[s[9]]);
+            mix(v, 1, 6, 11, 12, m[s[10]], m[s[11]]);
+            mix(v, 2, 7, 8, 13, m[s[12]], m[s[13]]);
+            mix(v, 3, 4, 9, 14, m[s[14]], m[s[15]]);
+        }
+        for (int i = 0; i < 8; i++) {
+            h[i] ^= v[i] ^ v[i + 8];
+        }
+    }
+
+    /**
+     * The G mixing function of BLAKE2s.
+     *
+     * @param v the working vector.
+     * @param a the index of the first word.
+     * @param b the index of the second word.
+     * @param c the index of the third word.
+     * @param d the index of the fourth word.
+     * @param x the first message word.
+     * @param y the second message word.
+     */
+    private static void mix(int[] v, int a, int b, int c, int d, int x, int y) {
+        v[a] += v[b] + x;
+        v[d] = Integer.rotateRight(v[d] ^ v[a], 16);
+        v[c] += v[d];
+        v[b] = Integer.rotateRight(v[b] ^ v[c], 12);
+        v[a] += v[b] + y;
+        v[d] = Integer.rotateRight(v[d] ^ v[a], 8);
+        v[c] += v[d];
+        v[b] = Integer.rotateRight(v[b] ^ v[c], 7);
+    }
+
+    /**
+     * Reads a little-endian word.
+     *
+     * @param bytes  the bytes to read from.
+     * @param offset the position of the first byte of the word.
+     * @return the word.
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
@@ -13,6 +13,15 @@ public class Block implements Comparable<Block>, Iterable<Transaction> {
      * The hash code of the root of the Merkle tree of transactions in the block.
      */
     private String rootHash;
+    /**
+     * The identifier of the hash algorithm of the Merkle tree of transactions in
+     * the block.
+     */
+    private String hashAlgorithm;
+    /**
+     * The filter of the accounts and transactions of the block.
+     */
+    private BlockFilter filter;
 
     /**
      * Creates a new block with an empty list of transactions.
@@ -61,6 +70,45 @@ public class Block implements Comparable<Block>, Iterable<Transaction> {
         rootHash = hashCode;
     }
 
+    /**
+     * return the identifier of the hash algorithm of the Merkle tree of
+     * transactions in the block.
+     *
+     * @return the identifier of the hash algorithm, or null if the block was
+     * never sealed.
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * Sets the identifier of the hash algorithm of the Merkle tree of
+     * transactions in the block.
+     *
+     * @param algorithm the identifier of the hash algorithm.
+     */
+    public void setHashAlgorithm(String algorithm) {
+        hashAlgorithm = algorithm;
+    }
+
+    /**
+     * return the filter of the accounts and transactions of the block.
+     *
+     * @return the filter of the block, or null if the block was never sealed.
+     */
+    public BlockFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the filter of the accounts and transactions of the block.
+     *
+     * @param filter the filter of the block.
+     */
+    public void setFilter(BlockFilter filter) {
+        this.filter = filter;
+    }
+
     /**
      * Returns an iterator over the transactions in the block.
      *
@@ -0,0 +1,502 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A compact binary encoding of blocks for archival storage and propagation.
+ * Account names are stored once per block in a dictionary and transactions
+ * refer to them by number. Amounts and fees are stored as the zig-zag varint
+ * of their difference with the previous transaction, which is small in a
+ * block sorted by fee. The body may further be compressed in the LZ4 block
+ * format. The root hash, the hash algorithm and the filter of the block are
+ * kept.
+ *
+ * <pre>
+ * header  'B' 'C' version flags [varint body length if compressed]
+ * body    [root hash] [hash algorithm] [varint length and bytes of the filter]
+ *         varint names, then varint length and UTF-8 bytes of each name
+ *         varint transactions, then for each transaction:
+ *         varint sender, varint receiver, zig-zag varint amount delta,
+ *         zig-zag varint fee delta
+ * </pre>
+ * Encoded blocks can be hashed straight into Merkle leaves: the text of each
+ * transaction is assembled from the dictionary bytes into a single buffer
+ * and hashed, without any Transaction or String being created.
+ */
+public final class BlockCodec {
+    /**
+     * The version of the encoding.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The flag of a compressed body.
+     */
+    private static final int COMPRESSED = 1;
+    /**
+     * The flag of a body that starts with the root hash.
+     */
+    private static final int HAS_ROOT = 2;
+    /**
+     * The flag of a body that holds the hash algorithm.
+     */
+    private static final int HAS_ALGORITHM = 4;
+    /**
+     * The flag of a body that holds the filter.
+     */
+    private static final int HAS_FILTER = 8;
+    /**
+     * The largest body a compressed block may declare, 256 MB.
+     */
+    private static final int MAX_BODY_SIZE = 1 << 28;
+
+    /**
+     * Reads the encoding sequentially.
+     */
+    private static class Reader {
+        /**
+         * The bytes.
+         */
+        private final byte[] bytes;
+        /**
+         * The position of the next byte.
+         */
+        private int pos;
+
+        /**
+         * Constructor for the Reader class.
+         *
+         * @param bytes is the bytes.
+         * @param pos   is the position of the first byte.
+         */
+        Reader(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        /**
+         * Read an unsigned varint.
+         *
+         * @return the value.
+         */
+        int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = next();
+                value |= (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("corrupt block encoding");
+        }
+
+        /**
+         * Read a zig-zag varint.
+         *
+         * @return the value.
+         */
+        int zigzag() {
+            int n = varint();
+            return (n >>> 1) ^ -(n & 1);
+        }
+
+        /**
+         * Read the number of items that follow, each taking at least a given
+         * number of bytes.
+         *
+         * @param itemBytes is the smallest number of bytes of an item.
+         * @return the number of items.
+         */
+        int count(int itemBytes) {
+            int count = varint();
+            if (count < 0 || count > (bytes.length - pos) / itemBytes) {
+                throw new IllegalArgumentException("corrupt block encoding");
+            }
+            return count;
+        }
+
+        /**
+         * Read a length-prefixed UTF-8 string.
+         *
+         * @return the string.
+         */
+        String string() {
+            int length = varint();
+            check(length);
+            String s = utf8(bytes, pos, length);
+            pos += length;
+            return s;
+        }
+
+        /**
+         * Read a length-prefixed array of bytes.
+         *
+         * @return the bytes.
+         */
+        byte[] bytes() {
+            int length = varint();
+            check(length);
+            byte[] b = Arrays.copyOfRange(bytes, pos, pos + length);
+            pos += length;
+            return b;
+        }
+
+        /**
+         * Read one byte.
+         *
+         * @return the byte, from 0 to 255.
+         */
+        int next() {
+            check(1);
+            return bytes[pos++] & 0xff;
+        }
+
+        /**
+         * Check that enough bytes are left.
+         *
+         * @param length is the number of bytes needed.
+         */
+        void check(int length) {
+            if (length < 0 || length > bytes.length - pos) {
+                throw new IllegalArgumentException("corrupt block encoding");
+            }
+        }
+    }
+
+    /**
+     * No instances.
+     */
+    private BlockCodec() {
+    }
+
+    /**
+     * Encode a block.
+     *
+     * @param block    is the block.
+     * @param compress is whether the body is compressed.
+     * @return the encoded block.
+     */
+    public static byte[] encode(Block block, boolean compress) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int previousAmount = 0;
+        int previousFee = 0;
+        for (Transaction t : block) {
+            writeVarint(records, intern(t.getSender(), ids, names));
+            writeVarint(records, intern(t.getReceiver(), ids, names));
+            writeVarint(records, zigzag(t.getAmount() - previousAmount));
+            writeVarint(records, zigzag(t.getFee() - previousFee));
+            previousAmount = t.getAmount();
+            previousFee = t.getFee();
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int flags = 0;
+        if (block.getRootHash() != null) {
+            flags |= HAS_ROOT;
+            writeString(body, block.getRootHash());
+        }
+        if (block.getHashAlgorithm() != null) {
+            flags |= HAS_ALGORITHM;
+            writeString(body, block.getHashAlgorithm());
+        }
+        if (block.getFilter() != null) {
+            flags |= HAS_FILTER;
+            byte[] filter = block.getFilter().toByteArray();
+            writeVarint(body, filter.length);
+            body.writeBytes(filter);
+        }
+        writeVarint(body, names.size());
+        for (String name : names) {
+            writeString(body, name);
+        }
+        writeVarint(body, block.numOfTransactions());
+        body.writeBytes(records.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('B');
+        out.write('C');
+        out.write(VERSION);
+        byte[] raw = body.toByteArray();
+        if (compress) {
+            out.write(flags | COMPRESSED);
+            writeVarint(out, raw.length);
+            out.writeBytes(Lz4Block.compress(raw, raw.length));
+        } else {
+            out.write(flags);
+            out.writeBytes(raw);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a block, with its root hash, hash algorithm and filter.
+     *
+     * @param encoded is the encoded block.
+     * @return the block.
+     */
+    public static Block decode(byte[] encoded) {
+        int[] flags = new int[1];
+        Reader in = body(encoded, flags);
+        Block block = new Block();
+        if ((flags[0] & HAS_ROOT) != 0) {
+            block.setRootHash(in.string());
+        }
+        if ((flags[0] & HAS_ALGORITHM) != 0) {
+            block.setHashAlgorithm(in.string());
+        }
+        if ((flags[0] & HAS_FILTER) != 0) {
+            block.setFilter(BlockFilter.fromByteArray(in.bytes()));
+        }
+        String[] names = new String[in.count(1)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.string();
+        }
+        int count = in.count(4);
+        int amount = 0;
+        int fee = 0;
+        for (int i = 0; i < count; i++) {
+            String sender = name(names, in.varint());
+            String receiver = name(names, in.varint());
+            amount += in.zigzag();
+            fee += in.zigzag();
+            block.addTransaction(new Transaction(sender, receiver, amount, fee));
+        }
+        return block;
+    }
+
+    /**
+     * Hash the transactions of an encoded block into Merkle leaves, in order,
+     * without decoding them into objects. The text of each transaction is
+     * assembled in a single buffer from the UTF-8 bytes of the dictionary,
+     * which are checked to be valid UTF-8 like decode does, so both give the
+     * same root or both reject the block.
+     *
+     * @param encoded  is the encoded block.
+     * @param scheme   is the way the leaves are hashed.
+     * @param function is the hash function.
+     * @return the hash code of each transaction.
+     */
+    public static String[] leafHashes(byte[] encoded, HashScheme scheme, HashFunction function) {
+        int[] flags = new int[1];
+        Reader in = body(encoded, flags);
+        if ((flags[0] & HAS_ROOT) != 0) {
+            in.string();
+        }
+        if ((flags[0] & HAS_ALGORITHM) != 0) {
+            in.string();
+        }
+        if ((flags[0] & HAS_FILTER) != 0) {
+            int length = in.varint();
+            in.check(length);
+            in.pos += length;
+        }
+        byte[][] names = new byte[in.count(1)][];
+        int longest = 0;
+        for (int i = 0; i < names.length; i++) {
+            int length = in.varint();
+            in.check(length);
+            utf8(in.bytes, in.pos, length);
+            names[i] = new byte[length];
+            System.arraycopy(in.bytes, in.pos, names[i], 0, length);
+            in.pos += length;
+            longest = Math.max(longest, length);
+        }
+        int count = in.count(4);
+        String[] hashes = new String[count];
+        byte[] buffer = new byte[1 + 2 * longest + 2 * 11 + 3];
+        int amount = 0;
+        int fee = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] sender = nameBytes(names, in.varint());
+            byte[] receiver = nameBytes(names, in.varint());
+            amount += in.zigzag();
+            fee += in.zigzag();
+            int pos = 1;
+            System.arraycopy(sender, 0, buffer, pos, sender.length);
+            pos += sender.length;
+            buffer[pos++] = ' ';
+            System.arraycopy(receiver, 0, buffer, pos, receiver.length);
+            pos += receiver.length;
+            buffer[pos++] = ' ';
+            pos = writeDecimal(amount, buffer, pos);
+            buffer[pos++] = ' ';
+            pos = writeDecimal(fee, buffer, pos);
+            hashes[i] = scheme.leafHash(function, buffer, 1, pos - 1);
+        }
+        return hashes;
+    }
+
+    /**
+     * Compute the root hash of the Merkle Tree of an encoded block, hashing the
+     * transactions straight from the encoding.
+     *
+     * @param encoded  is the encoded block.
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     * @param layout   is the shape of the tree.
+     * @return the root hash, or null if the block has no transactions.
+     */
+    public static String computeRoot(byte[] encoded, HashScheme scheme, HashFunction function, TreeLayout layout) {
+        return MerkleTree.computeRoot(leafHashes(encoded, scheme, function), scheme, function, layout);
+    }
+
+    /**
+     * Check the header of an encoded block and get a reader of its body,
+     * decompressing it if needed.
+     *
+     * @param encoded is the encoded block.
+     * @param flags   receives the flags of the header.
+     * @return the reader of the body.
+     */
+    private static Reader body(byte[] encoded, int[] flags) {
+        if (encoded.length < 4 || encoded[0] != 'B' || encoded[1] != 'C' || encoded[2] != VERSION) {
+            throw new IllegalArgumentException("not an encoded block");
+        }
+        flags[0] = encoded[3] & 0xff;
+        if ((flags[0] & COMPRESSED) == 0) {
+            return new Reader(encoded, 4);
+        }
+        Reader header = new Reader(encoded, 4);
+        int size = header.varint();
+        if (size < 0 || size > MAX_BODY_SIZE) {
+            throw new IllegalArgumentException("corrupt block encoding");
+        }
+        return new Reader(Lz4Block.decompress(encoded, header.pos, encoded.length - header.pos, size), 0);
+    }
+
+    /**
+     * Decode UTF-8 bytes strictly. A lenient decoding would replace malformed
+     * bytes, so the decoded names would no longer be the bytes that are hashed.
+     *
+     * @param bytes  is the bytes.
+     * @param offset is the position of the first byte.
+     * @param length is the number of bytes.
+     * @return the string.
+     */
+    private static String utf8(byte[] bytes, int offset, int length) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length)).toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("corrupt block encoding");
+        }
+    }
+
+    /**
+     * Get the number of a name, adding it to the dictionary if it is new.
+     *
+     * @param name  is the name.
+     * @param ids   is the number of each name.
+     * @param names is the names in order of their numbers.
+     * @return the number of the name.
+     */
+    private static int intern(String name, HashMap<String, Integer> ids, ArrayList<String> names) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * Look up a name of the dictionary.
+     *
+     * @param names is the dictionary.
+     * @param id    is the number of the name.
+     * @return the name.
+     */
+    private static String name(String[] names, int id) {
+        if (id < 0 || id >= names.length) {
+            throw new IllegalArgumentException("corrupt block encoding");
+        }
+        return names[id];
+    }
+
+    /**
+     * Look up the UTF-8 bytes of a name of the dictionary.
+     *
+     * @param names is the dictionary.
+     * @param id    is the number of the name.
+     * @return the UTF-8 bytes of the name.
+     */
+    private static byte[] nameBytes(byte[][] names, int id) {
+        if (id < 0 || id >= names.length) {
+            throw new IllegalArgumentException("corrupt block encoding");
+        }
+        return names[id];
+    }
+
+    /**
+     * Zig-zag encode a signed value, so that small magnitudes give small
+     * varints.
+     *
+     * @param n is the value.
+     * @return the zig-zag encoding of the value.
+     */
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Write an unsigned varint.
+     *
+     * @param out   is the output.
+     * @param value is the value.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param out is the output.
+     * @param s   is the string.
+     */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Write the decimal digits of a value as ASCII, like %d does.
+     *
+     * @param value  is the value.
+     * @param buffer is the output buffer.
+     * @param pos    is the position in the output buffer.
+     * @return the new position in the output buffer.
+     */
+    private static int writeDecimal(int value, byte[] buffer, int pos) {
+        long v = value;
+        if (v < 0) {
+            buffer[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buffer[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+        return pos;
+    }
+}
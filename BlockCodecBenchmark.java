@@ -0,0 +1,74 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Measures the block codec on blocks shaped like transactions.txt: a limited
+ * set of accounts that repeat, amounts of five digits and fees sorted in
+ * decreasing order. It reports the size of the text form and of both
+ * encodings, the time to encode and decode, and the time to compute the
+ * root hash from an encoded block, by decoding it into a Block or by
+ * hashing the leaves straight from the encoding.
+ *
+ * <pre>
+ * java BlockCodecBenchmark [seconds per measurement] [transactions per block] [accounts]
+ * </pre>
+ */
+public class BlockCodecBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of seconds of each measurement, the
+     *             number of transactions of the block and the number of
+     *             accounts.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        long budget = (long) (seconds * 1e9);
+
+        Random random = new Random(42);
+        PriorityLine<Transaction> queue = new PriorityLine<>();
+        for (int i = 0; i < size; i++) {
+            queue.enqueue(new Transaction("sender" + random.nextInt(accounts), "receiver" + random.nextInt(accounts),
+                    10000 + random.nextInt(90000), random.nextInt(10)));
+        }
+        Block block = new Block();
+        int textBytes = 0;
+        while (!queue.isEmpty()) {
+            Transaction t = queue.dequeue();
+            block.addTransaction(t);
+            textBytes += t.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        HashScheme scheme = HashScheme.DOMAIN_SEPARATED;
+        HashFunction function = HashFunctions.SHA_256;
+        TreeLayout layout = TreeLayout.PROMOTED;
+        new MerkleTree(block, scheme, function, layout);
+
+        byte[] plain = BlockCodec.encode(block, false);
+        byte[] compressed = BlockCodec.encode(block, true);
+        if (!block.getRootHash().equals(BlockCodec.computeRoot(compressed, scheme, function, layout))
+                || !block.getRootHash().equals(MerkleTree.computeRoot(BlockCodec.decode(compressed), scheme,
+                function, layout))) {
+            throw new IllegalStateException("the encoded block has another root hash");
+        }
+
+        System.out.printf("Block of %d transactions over %d accounts%n", size, accounts);
+        System.out.printf("%-28s%10s%14s%14s%n", "form", "bytes", "encode us", "decode us");
+        System.out.printf("%-28s%10d%n", "text", textBytes);
+        for (boolean compress : new boolean[] {false, true}) {
+            byte[] encoded = compress ? compressed : plain;
+            double encode = BenchmarkTimer.measure(budget, () -> BlockCodec.encode(block, compress).length);
+            double decode = BenchmarkTimer.measure(budget, () -> BlockCodec.decode(encoded).numOfTransactions());
+            System.out.printf("%-28s%10d%14.1f%14.1f%n", compress ? "dictionary + delta + LZ4" : "dictionary + delta",
+                    encoded.length, encode / 1e3, decode / 1e3);
+        }
+
+        double viaBlock = BenchmarkTimer.measure(budget,
+                () -> MerkleTree.computeRoot(BlockCodec.decode(compressed), scheme, function, layout).charAt(0));
+        double streaming = BenchmarkTimer.measure(budget,
+                () -> BlockCodec.computeRoot(compressed, scheme, function, layout).charAt(0));
+        System.out.printf("%nRoot hash of the compressed block (us): decode then hash %.1f, streaming %.1f%n",
+                viaBlock / 1e3, streaming / 1e3);
+    }
+}
@@ -0,0 +1,237 @@
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * A compact probabilistic summary of a block: a Bloom filter over the account
+ * names of its senders and receivers and over its transactions. A query never
+ * misses an account or a transaction of the block, and wrongly matches one
+ * that is not in the block with about the false-positive rate chosen when the
+ * filter was built, so a wallet scanning the chain only looks inside the
+ * blocks whose filter matches.
+ * Each item sets k bits chosen by double hashing of a 64-bit hash. Accounts
+ * and transactions are hashed with different seeds, so an account name never
+ * sets the same bits as a transaction that happens to have the same text.
+ */
+public class BlockFilter {
+    /**
+     * The false-positive rate used when none is given.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    /**
+     * The seed of the hash of an account name.
+     */
+    private static final long ACCOUNT_SEED = 0x9e3779b97f4a7c15L;
+    /**
+     * The seed of the hash of a transaction.
+     */
+    private static final long TRANSACTION_SEED = 0xc2b2ae3d27d4eb4fL;
+
+    /**
+     * The bits of the filter.
+     */
+    private final long[] bits;
+    /**
+     * The number of bits of the filter.
+     */
+    private final int size;
+    /**
+     * The number of bits set per item.
+     */
+    private final int hashes;
+
+    /**
+     * Constructor for the BlockFilter class.
+     *
+     * @param bits   is the bits of the filter.
+     * @param size   is the number of bits of the filter.
+     * @param hashes is the number of bits set per item.
+     */
+    private BlockFilter(long[] bits, int size, int hashes) {
+        this.bits = bits;
+        this.size = size;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Build the filter of a block.
+     * The number of bits is -n ln(p) / ln(2)^2 and the number of bits set per
+     * item is ln(2) times the number of bits per item, for the n distinct items
+     * of the block and the false-positive rate p.
+     *
+     * @param block             is the block.
+     * @param falsePositiveRate is the target false-positive rate, between 0 and 1
+     *                          exclusive.
+     * @return the filter of the block.
+     */
+    public static BlockFilter build(Block block, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false-positive rate must be between 0 and 1");
+        }
+        HashSet<String> accounts = new HashSet<>();
+        for (Transaction t : block) {
+            accounts.add(t.getSender());
+            accounts.add(t.getReceiver());
+        }
+        int items = Math.max(1, accounts.size() + block.numOfTransactions());
+        double ln2 = Math.log(2);
+        long wanted = (long) Math.ceil(-items * Math.log(falsePositiveRate) / (ln2 * ln2));
+        int size = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, wanted));
+        int hashes = (int) Math.max(1, Math.min(30, Math.round((double) size / items * ln2)));
+        BlockFilter filter = new BlockFilter(new long[(size + 63) >>> 6], size, hashes);
+        for (String account : accounts) {
+            filter.add(hash(account, ACCOUNT_SEED));
+        }
+        for (Transaction t : block) {
+            filter.add(hash(t.toString(), TRANSACTION_SEED));
+        }
+        return filter;
+    }
+
+    /**
+     * Returns true if the block may involve an account as sender or receiver.
+     *
+     * @param account is the name of the account.
+     * @return false if the block surely does not involve the account.
+     */
+    public boolean mightInvolve(String account) {
+        return mightContain(hash(account, ACCOUNT_SEED));
+    }
+
+    /**
+     * Hash an account name once for many queries.
+     *
+     * @param account is the name of the account.
+     * @return the hash to pass to mightContain.
+     */
+    static long accountHash(String account) {
+        return hash(account, ACCOUNT_SEED);
+    }
+
+    /**
+     * Hash a transaction once for many queries.
+     *
+     * @param t is the transaction.
+     * @return the hash to pass to mightContain.
+     */
+    static long transactionHash(Transaction t) {
+        return hash(t.toString(), TRANSACTION_SEED);
+    }
+
+    /**
+     * Returns true if the block may contain a transaction.
+     *
+     * @param t is the transaction.
+     * @return false if the block surely does not contain the transaction.
+     */
+    public boolean mightContain(Transaction t) {
+        return mightContain(hash(t.toString(), TRANSACTION_SEED));
+    }
+
+    /**
+     * return the number of bits of the filter.
+     *
+     * @return the number of bits of the filter.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * return the number of bits set per item.
+     *
+     * @return the number of bits set per item.
+     */
+    public int hashes() {
+        return hashes;
+    }
+
+    /**
+     * Serialize the filter, to store it or send it to a wallet.
+     *
+     * @return the bytes of the filter.
+     */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 * bits.length);
+        buffer.putInt(size).putInt(hashes);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Deserialize a filter written by toByteArray.
+     *
+     * @param bytes is the bytes of the filter.
+     * @return the filter.
+     */
+    public static BlockFilter fromByteArray(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 8) {
+            throw new IllegalArgumentException("not a block filter");
+        }
+        int size = buffer.getInt();
+        int hashes = buffer.getInt();
+        if (size < 1 || hashes < 1 || bytes.length != 8 + 8 * (long) ((size + 63) >>> 6)) {
+            throw new IllegalArgumentException("not a block filter");
+        }
+        long[] bits = new long[(size + 63) >>> 6];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new BlockFilter(bits, size, hashes);
+    }
+
+    /**
+     * Set the bits of an item.
+     *
+     * @param h is the 64-bit hash of the item.
+     */
+    private void add(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Test the bits of an item.
+     *
+     * @param h is the 64-bit hash of the item.
+     * @return true if all the bits of the item are set.
+     */
+    boolean mightContain(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash a string to 64 bits: FNV-1a over its characters followed by the
+     * finalizer of MurmurHash3.
+     *
+     * @param s    is the string.
+     * @param seed is the seed.
+     * @return the hash of the string.
+     */
+    private static long hash(String s, long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
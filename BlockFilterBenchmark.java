@@ -0,0 +1,120 @@
+import java.util.Random;
+
+/**
+ * Measures the per-block filters on a synthetic chain where every account
+ * appears in only a few blocks. For several false-positive rates it reports
+ * the cost to build a filter, its size, the query throughput and the measured
+ * false-positive rate. It then times a wallet scan for accounts, walking every
+ * transaction of every block against the scan of the blockchain that skips
+ * the blocks ruled out by their filter.
+ *
+ * <pre>
+ * java BlockFilterBenchmark [blocks] [transactions per block] [accounts]
+ * </pre>
+ */
+public class BlockFilterBenchmark {
+    /**
+     * The false-positive rates compared.
+     */
+    private static final double[] RATES = {0.1, 0.01, 0.001};
+    /**
+     * The number of accounts whose scans are checked against each other.
+     */
+    private static final int SCANS = 20;
+
+    /**
+     * Count the blocks that involve an account by walking every transaction.
+     *
+     * @param blocks  is the blocks.
+     * @param account is the name of the account.
+     * @return the number of blocks that involve the account.
+     */
+    private static int scan(Block[] blocks, String account) {
+        int matches = 0;
+        for (Block block : blocks) {
+            for (Transaction t : block) {
+                if (t.getSender().equals(account) || t.getReceiver().equals(account)) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of blocks, the number of transactions
+     *             per block and the number of accounts.
+     */
+    public static void main(String[] args) {
+        int blockCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int perBlock = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        Random random = new Random(42);
+        PriorityLine<Transaction> queue = new PriorityLine<>();
+        for (int i = 0; i < blockCount * perBlock; i++) {
+            queue.enqueue(new Transaction("account" + random.nextInt(accounts), "account" + random.nextInt(accounts),
+                    10000 + random.nextInt(90000), 1));
+        }
+        Blockchain chain = new Blockchain(queue, perBlock, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                TreeLayout.PROMOTED);
+        Block[] blocks = new Block[chain.size()];
+        int b = 0;
+        for (Block block : chain) {
+            blocks[b++] = block;
+        }
+        System.out.printf("%d blocks of %d transactions over %d accounts%n%n", blocks.length, perBlock, accounts);
+
+        System.out.printf("%-8s%14s%14s%6s%16s%14s%n", "rate", "build us", "bytes/block", "k", "queries/s",
+                "measured");
+        for (double rate : RATES) {
+            long start = System.nanoTime();
+            BlockFilter[] filters = new BlockFilter[blocks.length];
+            long bytes = 0;
+            for (int i = 0; i < blocks.length; i++) {
+                filters[i] = BlockFilter.build(blocks[i], rate);
+            }
+            double build = (System.nanoTime() - start) / 1e3 / blocks.length;
+            for (BlockFilter filter : filters) {
+                bytes += filter.toByteArray().length;
+            }
+            int queries = 0;
+            int positives = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < 200; q++) {
+                String absent = "absent" + q;
+                for (BlockFilter filter : filters) {
+                    if (filter.mightInvolve(absent)) {
+                        positives++;
+                    }
+                    queries++;
+                }
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-8s%14.1f%14d%6d%16.0f%14.4f%n", rate, build, bytes / blocks.length,
+                    filters[0].hashes(), queries / elapsed, (double) positives / queries);
+        }
+
+        String[] wanted = new String[SCANS];
+        for (int i = 0; i < SCANS; i++) {
+            wanted[i] = "account" + random.nextInt(accounts);
+        }
+        int fullMatches = 0;
+        int filteredMatches = 0;
+        for (String account : wanted) {
+            fullMatches += scan(blocks, account);
+            filteredMatches += chain.blocksInvolving(account).size();
+        }
+        long budget = 1_000_000_000L;
+        double full = BenchmarkTimer.measure(budget, () -> scan(blocks, wanted[0])) / 1e6;
+        double filtered = BenchmarkTimer.measure(budget, () -> chain.blocksInvolving(wanted[0]).size()) / 1e6;
+        if (fullMatches != filteredMatches) {
+            throw new IllegalStateException("the filtered scan missed blocks");
+        }
+        System.out.printf("%nScan for one account (ms): every transaction %.2f, with filters %.2f (%.0fx), "
+                + "%.1f matching blocks on average%n", full, filtered, full / filtered, (double) fullMatches / SCANS);
+    }
+}
@@ -1,45 +1,653 @@
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 
 /**
  * The class represents the entire blockchain.
+ * Blocks may be added on top of any known block, so the chain keeps a tree of
+ * forks. The chain is the branch with the greatest cumulative fees; each of
+ * its blocks has an undo record, so switching to another branch only touches
+ * the blocks above the fork. The blocks more than a finality depth below the
+ * tip are final: every block at their height is forgotten, and no block can be
+ * added below them any more.
  */
 
 public class Blockchain implements Iterable<Block> {
     /**
-     * The blockchain is represented as a singly linked list of blocks.
+     * The default number of blocks below the tip past which the blocks are
+     * final.
      */
-    private SinglyLinkedList<Block> blockchain;
+    public static final int DEFAULT_FINALITY_DEPTH = 1000;
+    /**
+     * The blocks of the chain, from the first one to the tip.
+     */
+    private ArrayList<Block> blockchain;
+    /**
+     * The place in the tree of forks of every block ever added, on the chain or
+     * on a side branch.
+     */
+    private HashMap<Block, Link> links;
+    /**
+     * The blocks of each height that is not final yet, on the chain or on a
+     * side branch.
+     */
+    private HashMap<Integer, ArrayList<Block>> heights;
+    /**
+     * The number of heights that are final.
+     */
+    private int finalized;
+    /**
+     * The number of blocks below the tip past which the blocks are final.
+     */
+    private int finalityDepth = DEFAULT_FINALITY_DEPTH;
+    /**
+     * The blocks that no other block builds on.
+     */
+    private ArrayList<Block> tips;
+    /**
+     * The undo record of each block of the chain: the change of balance it made
+     * to the attached state, or null if no state is attached.
+     */
+    private ArrayList<IntLongMap> undo;
+    /**
+     * The state kept in step with the chain, or null.
+     */
+    private StateEngine state;
+    /**
+     * The queue that takes back the transactions of the blocks dropped by a
+     * reorganization, or null.
+     */
+    private Mempool mempool;
+    /**
+     * The number of blocks taken off the chain by reorganizations.
+     */
+    private long reorganizedBlocks;
+    /**
+     * The Merkle Mountain Range over the root hashes of the blocks, in chain
+     * order.
+     */
+    private MerkleMountainRange blockRoots;
+    /**
+     * The hash scheme of the Merkle Trees of the blocks.
+     */
+    private HashScheme scheme;
+    /**
+     * The hash function of the Merkle Trees of the blocks.
+     */
+    private HashFunction function;
+    /**
+     * The shape of the Merkle Trees of the blocks.
+     */
+    private TreeLayout layout;
+    /**
+     * The false-positive rate of the filters of the blocks.
+     */
+    private double falsePositiveRate;
+    /**
+     * The cumulative fees at which the constructor cuts a block.
+     */
+    private int threshold;
 
     /**
      * The constructor takes a priority queue and creates the linked list of blocks.
      * If the queue is not empty then keep adding transactions into a block until
      * the total fees of the block is greater than or equal to the threshold.
-     * Reset the total fees and create a new block.
+     * Reset the total fees and create a new block. The blocks and the chain are
+     * hashed with the domain-separated scheme and SHA-256.
      *
      * @param threshold is the minimum amount of cumulative fees that is required to
      *                  create a new block.
      * @param queue     is the priority queue of transactions.
      */
     public Blockchain(PriorityLine<Transaction> queue, int threshold) {
-        blockchain = new SinglyLinkedList<>();
+        this(queue, threshold, HashScheme.DOMAIN_SEPARATED);
+    }
+
+    /**
+     * The constructor takes a priority queue and creates the linked list of blocks,
+     * sealing each block with the given hash scheme and SHA-256.
+     *
+     * @param queue     is the priority queue of transactions.
+     * @param threshold is the minimum amount of cumulative fees that is required to
+     *                  create a new block.
+     * @param scheme    is the hash scheme of the Merkle Trees of the blocks.
+     */
+    public Blockchain(PriorityLine<Transaction> queue, int threshold, HashScheme scheme) {
+        this(queue, threshold, scheme, HashFunctions.SHA_256);
+    }
+
+    /**
+     * The constructor takes a priority queue and creates the linked list of blocks,
+     * sealing each block with the given hash scheme and hash function in padded
+     * Merkle Trees.
+     *
+     * @param queue     is the priority queue of transactions.
+     * @param threshold is the minimum amount of cumulative fees that is required to
+     *                  create a new block.
+     * @param scheme    is the hash scheme of the Merkle Trees of the blocks.
+     * @param function  is the hash function of the Merkle Trees of the blocks.
+     */
+    public Blockchain(PriorityLine<Transaction> queue, int threshold, HashScheme scheme, HashFunction function) {
+        this(queue, threshold, scheme, function, TreeLayout.PADDED);
+    }
+
+    /**
+     * The constructor takes a priority queue and creates the linked list of blocks,
+     * sealing each block with the given hash scheme, hash function and tree
+     * layout, and with a filter of the default false-positive rate.
+     *
+     * @param queue     is the priority queue of transactions.
+     * @param threshold is the minimum amount of cumulative fees that is required to
+     *                  create a new block.
+     * @param scheme    is the hash scheme of the Merkle Trees of the blocks.
+     * @param function  is the hash function of the Merkle Trees of the blocks.
+     * @param layout    is the shape of the Merkle Trees of the blocks.
+     */
+    public Blockchain(PriorityLine<Transaction> queue, int threshold, HashScheme scheme, HashFunction function,
+            TreeLayout layout) {
+        this(queue, threshold, scheme, function, layout, BlockFilter.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * The constructor takes a priority queue and creates the linked list of blocks,
+     * sealing each block with the given hash scheme, hash function and tree
+     * layout, and with a filter of the given false-positive rate.
+     *
+     * @param queue             is the priority queue of transactions.
+     * @param threshold         is the minimum amount of cumulative fees that is
+     *                          required to create a new block.
+     * @param scheme            is the hash scheme of the Merkle Trees of the blocks.
+     * @param function          is the hash function of the Merkle Trees of the
+     *                          blocks.
+     * @param layout            is the shape of the Merkle Trees of the blocks.
+     * @param falsePositiveRate is the false-positive rate of the filters of the
+     *                          blocks.
+     */
+    public Blockchain(PriorityLine<Transaction> queue, int threshold, HashScheme scheme, HashFunction function,
+            TreeLayout layout, double falsePositiveRate) {
+        this(drain(queue), threshold, scheme, function, layout, falsePositiveRate);
+    }
+
+    /**
+     * The constructor takes transactions in decreasing order of fee, such as
+     * those of an {@link ExternalTransactionSort}, and creates the list of
+     * blocks like the constructor that takes a priority queue, reading each
+     * transaction only once.
+     *
+     * @param transactions      is the transactions, by decreasing fee.
+     * @param threshold         is the minimum amount of cumulative fees that is
+     *                          required to create a new block.
+     * @param scheme            is the hash scheme of the Merkle Trees of the blocks.
+     * @param function          is the hash function of the Merkle Trees of the
+     *                          blocks.
+     * @param layout            is the shape of the Merkle Trees of the blocks.
+     * @param falsePositiveRate is the false-positive rate of the filters of the
+     *                          blocks.
+     */
+    public Blockchain(Iterator<Transaction> transactions, int threshold, HashScheme scheme, HashFunction function,
+            TreeLayout layout, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false-positive rate must be between 0 and 1");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.threshold = threshold;
+        this.scheme = scheme;
+        this.function = function;
+        this.layout = layout;
+        blockchain = new ArrayList<>();
+        links = new HashMap<>();
+        heights = new HashMap<>();
+        tips = new ArrayList<>();
+        undo = new ArrayList<>();
+        blockRoots = new MerkleMountainRange(scheme, function);
         Block block = new Block();
         int totalBlockFees = 0;
-        while (!queue.isEmpty()) {
-            Transaction transaction = queue.dequeue();
+        while (transactions.hasNext()) {
+            Transaction transaction = transactions.next();
             block.addTransaction(transaction);
             totalBlockFees += transaction.getFee();
             if (totalBlockFees >= threshold) {
-                blockchain.add(block);
+                addBlock(tip(), block);
                 block = new Block();
                 totalBlockFees = 0;
             }
         }
         if (totalBlockFees > 0) {
-            String hash = block.getRootHash();
-            block.setRootHash(hash);
-            blockchain.add(block);
+            addBlock(tip(), block);
+        }
+
+    }
+
+    /**
+     * Take the transactions out of a priority queue, highest priority first.
+     *
+     * @param queue is the priority queue of transactions.
+     * @return an iterator that dequeues the transactions.
+     */
+    private static Iterator<Transaction> drain(PriorityLine<Transaction> queue) {
+        return new Iterator<Transaction>() {
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            public Transaction next() {
+                return queue.dequeue();
+            }
+        };
+    }
+
+    /**
+     * Add a block on top of another one, sealing it by setting its root hash,
+     * hash algorithm and filter.
+     * A block on top of the tip extends the chain. Any other block starts or
+     * extends a side branch, which becomes the chain as soon as its cumulative
+     * fees are greater than those of the chain: the blocks above the fork are
+     * taken back off with their undo records, then the blocks of the branch are
+     * applied. The cost depends on the number of blocks reorganized, not on the
+     * length of the chain. A branch that forks below the final blocks never
+     * becomes the chain.
+     *
+     * @param parent is the block to build on, or null to build a first block.
+     * @param block  is the new block.
+     * @return true if the block is now the tip of the chain.
+     */
+    public boolean addBlock(Block parent, Block block) {
+        Link above = null;
+        if (parent != null) {
+            above = links.get(parent);
+            if (above == null) {
+                throw new IllegalArgumentException("unknown or final parent block");
+            }
+        } else if (finalized > 0) {
+            throw new IllegalArgumentException("the first block is final");
+        }
+        if (links.containsKey(block)) {
+            throw new IllegalArgumentException("block already added");
+        }
+        long fees = 0;
+        for (Transaction t : block) {
+            fees += t.getFee();
+        }
+        block.setRootHash(MerkleTree.computeRoot(block, scheme, function, layout));
+        block.setHashAlgorithm(function.id());
+        block.setFilter(BlockFilter.build(block, falsePositiveRate));
+        Link link = above == null ? new Link(null, 0, fees)
+                : new Link(parent, above.height + 1, above.cumulativeFees + fees);
+        links.put(block, link);
+        heights.computeIfAbsent(link.height, h -> new ArrayList<>()).add(block);
+        tips.remove(parent);
+        tips.add(block);
+        boolean extended;
+        if (parent == tip()) {
+            connect(block);
+            extended = true;
+        } else {
+            extended = link.cumulativeFees > cumulativeFees() && reorganize(block);
+        }
+        prune();
+        return extended;
+    }
+
+    /**
+     * Make final the heights more than the finality depth below the tip:
+     * forget every block at these heights, on the chain or on a side branch,
+     * and drop the undo records of the chain there.
+     */
+    private void prune() {
+        while (finalized < blockchain.size() - finalityDepth) {
+            ArrayList<Block> level = heights.remove(finalized);
+            if (level != null) {
+                for (Block block : level) {
+                    links.remove(block);
+                    tips.remove(block);
+                }
+            }
+            undo.set(finalized, null);
+            finalized++;
         }
+    }
 
+    /**
+     * Sets the number of blocks below the tip past which the blocks are final.
+     * It applies from the next block added; heights already final stay final.
+     *
+     * @param depth is the number of blocks, at least 1.
+     */
+    public void setFinalityDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("finality depth must be at least 1");
+        }
+        finalityDepth = depth;
+    }
+
+    /**
+     * return the number of blocks of the chain that are final.
+     *
+     * @return the number of blocks of the chain that are final.
+     */
+    public int finalized() {
+        return finalized;
+    }
+
+    /**
+     * Keep a state in step with the chain: the blocks already on the chain are
+     * applied to it now, and every later change of the chain is applied or
+     * reverted. The final blocks keep no undo record.
+     *
+     * @param engine is a state to which no block was applied yet.
+     */
+    public void attach(StateEngine engine) {
+        for (int i = 0; i < blockchain.size(); i++) {
+            IntLongMap delta = engine.apply(blockchain.get(i));
+            undo.set(i, i < finalized ? null : delta);
+        }
+        state = engine;
+    }
+
+    /**
+     * Sets the queue that takes back the transactions of the blocks dropped by
+     * a reorganization. The transactions of the blocks that replace them are
+     * removed from it.
+     *
+     * @param mempool is the mempool of pending transactions, or null.
+     */
+    public void setMempool(Mempool mempool) {
+        this.mempool = mempool;
+    }
+
+    /**
+     * Add a block to the end of the chain and its root hash to the Merkle
+     * Mountain Range, keeping its undo record.
+     *
+     * @param block is the sealed block.
+     */
+    private void connect(Block block) {
+        blockchain.add(block);
+        blockRoots.append(block.getRootHash());
+        undo.add(state == null ? null : state.apply(block));
+    }
+
+    /**
+     * Take the last block off the chain and its root hash off the Merkle
+     * Mountain Range, and revert its change to the state.
+     *
+     * @return the block taken off.
+     */
+    private Block disconnect() {
+        Block block = blockchain.remove(blockchain.size() - 1);
+        blockRoots.truncate(blockchain.size());
+        IntLongMap delta = undo.remove(undo.size() - 1);
+        if (delta != null) {
+            state.revert(delta);
+        }
+        return block;
+    }
+
+    /**
+     * Make the branch of a block the chain.
+     * Walk up from the block to the first block that is on the chain, take the
+     * chain back down to that block, then apply the branch. The transactions are
+     * counted per copy: the copies of the dropped blocks that the branch does
+     * not include go back to the mempool, and the copies of the branch that the
+     * dropped blocks did not include are taken out of it, so the cost depends
+     * on the blocks reorganized, not on the size of the mempool.
+     *
+     * @param newTip is the last block of the branch.
+     * @return false if the branch forks below the final blocks, which leaves
+     * the chain as it is.
+     */
+    private boolean reorganize(Block newTip) {
+        ArrayList<Block> branch = new ArrayList<>();
+        Block block = newTip;
+        while (block != null && !onChain(block)) {
+            branch.add(block);
+            Link link = links.get(block);
+            if (link == null) {
+                return false;
+            }
+            block = link.parent;
+        }
+        int fork = block == null ? 0 : links.get(block).height + 1;
+        ArrayList<Transaction> dropped = new ArrayList<>();
+        while (blockchain.size() > fork) {
+            for (Transaction t : disconnect()) {
+                dropped.add(t);
+            }
+            reorganizedBlocks++;
+        }
+        HashMap<Transaction, Integer> copies = new HashMap<>();
+        for (Transaction t : dropped) {
+            copies.merge(t, 1, Integer::sum);
+        }
+        ArrayList<Transaction> included = new ArrayList<>();
+        for (int i = branch.size() - 1; i >= 0; i--) {
+            connect(branch.get(i));
+            for (Transaction t : branch.get(i)) {
+                if (copies.merge(t, -1, Integer::sum) < 0) {
+                    included.add(t);
+                }
+            }
+        }
+        if (mempool != null) {
+            ArrayList<Transaction> returned = new ArrayList<>();
+            for (Transaction t : dropped) {
+                int count = copies.get(t);
+                if (count > 0) {
+                    returned.add(t);
+                    copies.put(t, count - 1);
+                }
+            }
+            mempool.removeAll(included);
+            mempool.enqueueAll(returned);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if a known block is on the chain.
+     *
+     * @param block is the block.
+     * @return true if the block is on the chain.
+     */
+    private boolean onChain(Block block) {
+        Link link = links.get(block);
+        if (link == null) {
+            return false;
+        }
+        int height = link.height;
+        return height < blockchain.size() && blockchain.get(height) == block;
+    }
+
+    /**
+     * return the last block of the chain.
+     *
+     * @return the last block of the chain, or null if the chain is empty.
+     */
+    public Block tip() {
+        return blockchain.isEmpty() ? null : blockchain.get(blockchain.size() - 1);
+    }
+
+    /**
+     * return the blocks that no other block builds on: the tip of the chain and
+     * the tips of the side branches.
+     *
+     * @return the blocks that no other block builds on.
+     */
+    public SinglyLinkedList<Block> tips() {
+        SinglyLinkedList<Block> list = new SinglyLinkedList<>();
+        for (Block block : tips) {
+            list.add(block);
+        }
+        return list;
+    }
+
+    /**
+     * return the sum of the fees of the blocks of the chain.
+     *
+     * @return the sum of the fees of the blocks of the chain.
+     */
+    public long cumulativeFees() {
+        Block tip = tip();
+        return tip == null ? 0 : links.get(tip).cumulativeFees;
+    }
+
+    /**
+     * return the number of blocks taken off the chain by reorganizations.
+     *
+     * @return the number of blocks taken off the chain by reorganizations.
+     */
+    public long reorganizedBlocks() {
+        return reorganizedBlocks;
+    }
+
+    /**
+     * return the number of blocks in the chain.
+     *
+     * @return the number of blocks in the chain.
+     */
+    public int size() {
+        return blockchain.size();
+    }
+
+    /**
+     * return the cumulative fees at which a block is cut.
+     *
+     * @return the cumulative fees at which a block is cut.
+     */
+    public int threshold() {
+        return threshold;
+    }
+
+    /**
+     * return the hash scheme of the Merkle Trees of the blocks.
+     *
+     * @return the hash scheme of the Merkle Trees of the blocks.
+     */
+    public HashScheme scheme() {
+        return scheme;
+    }
+
+    /**
+     * return the hash function of the Merkle Trees of the blocks.
+     *
+     * @return the hash function of the Merkle Trees of the blocks.
+     */
+    public HashFunction function() {
+        return function;
+    }
+
+    /**
+     * return the shape of the Merkle Trees of the blocks.
+     *
+     * @return the shape of the Merkle Trees of the blocks.
+     */
+    public TreeLayout layout() {
+        return layout;
+    }
+
+    /**
+     * return the block at a position of the chain.
+     *
+     * @param index is the position of the block, from 0.
+     * @return the block at the position.
+     */
+    public Block get(int index) {
+        return blockchain.get(index);
+    }
+
+    /**
+     * return the root hash of the Merkle Mountain Range over the root hashes of
+     * the blocks, which commits to the whole chain.
+     *
+     * @return the root hash of the chain, or null if the chain is empty.
+     */
+    public String rootHash() {
+        return blockRoots.rootHash();
+    }
+
+    /**
+     * Extract the proof that a block is included in the chain.
+     *
+     * @param index is the position of the block, from 0.
+     * @return the proof that the block is included in the chain.
+     */
+    public MerkleMountainRange.Proof extractBlockProof(int index) {
+        return blockRoots.extractProof(index);
+    }
+
+    /**
+     * Extract the proof that a transaction is included in the chain, combining
+     * the proof that it is in a block with the proof that the block is in the
+     * chain.
+     *
+     * @param index is the position of the block that contains the transaction.
+     * @param t     is the transaction.
+     * @return the proof that the transaction is included in the chain, or null
+     * if the block does not contain the transaction.
+     */
+    public ChainProof extractProof(int index, Transaction t) {
+        Block block = blockchain.get(index);
+        MerkleProof proof = new MerkleTree(block, scheme, function, layout).extractMerkleProof(t);
+        if (proof == null) {
+            return null;
+        }
+        return new ChainProof(proof, block.getRootHash(), blockRoots.extractProof(index));
+    }
+
+    /**
+     * Find the blocks that involve an account as sender or receiver.
+     * Blocks whose filter rules the account out are skipped; the others are
+     * searched, so false positives of the filters never show in the result.
+     *
+     * @param account is the name of the account.
+     * @return the positions of the blocks that involve the account, in order.
+     */
+    public SinglyLinkedList<Integer> blocksInvolving(String account) {
+        SinglyLinkedList<Integer> found = new SinglyLinkedList<>();
+        long hash = BlockFilter.accountHash(account);
+        int index = 0;
+        for (Block block : blockchain) {
+            BlockFilter filter = block.getFilter();
+            if (filter == null || filter.mightContain(hash)) {
+                for (Transaction t : block) {
+                    if (t.getSender().equals(account) || t.getReceiver().equals(account)) {
+                        found.add(index);
+                        break;
+                    }
+                }
+            }
+            index++;
+        }
+        return found;
+    }
+
+    /**
+     * Find the blocks that contain a transaction.
+     * Blocks whose filter rules the transaction out are skipped; the others are
+     * searched, so false positives of the filters never show in the result.
+     *
+     * @param t is the transaction.
+     * @return the positions of the blocks that contain the transaction, in
+     * order.
+     */
+    public SinglyLinkedList<Integer> blocksContaining(Transaction t) {
+        SinglyLinkedList<Integer> found = new SinglyLinkedList<>();
+        String text = t.toString();
+        long hash = BlockFilter.transactionHash(t);
+        int index = 0;
+        for (Block block : blockchain) {
+            BlockFilter filter = block.getFilter();
+            if (filter == null || filter.mightContain(hash)) {
+                for (Transaction candidate : block) {
+                    if (candidate.toString().equals(text)) {
+                        found.add(index);
+                        break;
+                    }
+                }
+            }
+            index++;
+        }
+        return found;
     }
 
     /**
@@ -50,4 +658,35 @@ public class Blockchain implements Iterable<Block> {
     public Iterator<Block> iterator() {
         return blockchain.iterator();
     }
+
+    /**
+     * The place of a block in the tree of forks.
+     */
+    private static class Link {
+        /**
+         * The block it builds on, or null for a first block.
+         */
+        private final Block parent;
+        /**
+         * The number of blocks below it.
+         */
+        private final int height;
+        /**
+         * The sum of the fees of the block and of the blocks below it.
+         */
+        private final long cumulativeFees;
+
+        /**
+         * Constructor for the Link class.
+         *
+         * @param parent         is the block it builds on, or null.
+         * @param height         is the number of blocks below it.
+         * @param cumulativeFees is the sum of the fees of the branch up to it.
+         */
+        private Link(Block parent, int height, long cumulativeFees) {
+            this.parent = parent;
+            this.height = height;
+            this.cumulativeFees = cumulativeFees;
+        }
+    }
 }
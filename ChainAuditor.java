@@ -0,0 +1,278 @@
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Audits a whole blockchain by recomputing the Merkle root of every block and
+ * comparing it with the root hash stored in the block.
+ * Blocks are spread over a work-stealing pool while the chain is walked, and
+ * at most a fixed window of blocks is in flight at any time, so memory stays
+ * bounded no matter how long the chain is. No Merkle Tree is ever kept.
+ * Each block is hashed with the hash scheme and tree layout of the chain and
+ * the algorithm recorded in its header.
+ */
+public class ChainAuditor {
+    /**
+     * Receives the findings of an audit while it runs. Calls are serialized by
+     * the auditor, so implementations need no locking of their own.
+     */
+    public interface Listener {
+        /**
+         * Called as soon as a block is found whose stored root hash does not
+         * match its transactions.
+         *
+         * @param blockIndex   the position of the block in the chain, from 0.
+         * @param block        the block.
+         * @param computedRoot the root hash recomputed from the transactions.
+         */
+        void mismatch(int blockIndex, Block block, String computedRoot);
+
+        /**
+         * Called every time another batch of blocks has been audited.
+         *
+         * @param audited      the number of blocks audited so far.
+         * @param mismatches   the number of mismatches found so far.
+         * @param transactions the number of transactions hashed so far.
+         * @param elapsedNanos the time since the audit started.
+         */
+        void progress(long audited, long mismatches, long transactions, long elapsedNanos);
+    }
+
+    /**
+     * Summary of a finished audit.
+     */
+    public static class Result {
+        /**
+         * The number of blocks audited.
+         */
+        private final long audited;
+        /**
+         * The number of blocks whose root hash did not match.
+         */
+        private final long mismatches;
+        /**
+         * The number of transactions hashed.
+         */
+        private final long transactions;
+        /**
+         * The duration of the audit.
+         */
+        private final long elapsedNanos;
+
+        /**
+         * Constructor for the Result class.
+         *
+         * @param audited      the number of blocks audited.
+         * @param mismatches   the number of blocks whose root hash did not match.
+         * @param transactions the number of transactions hashed.
+         * @param elapsedNanos the duration of the audit.
+         */
+        Result(long audited, long mismatches, long transactions, long elapsedNanos) {
+            this.audited = audited;
+            this.mismatches = mismatches;
+            this.transactions = transactions;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * return the number of blocks audited.
+         *
+         * @return the number of blocks audited.
+         */
+        public long audited() {
+            return audited;
+        }
+
+        /**
+         * return the number of blocks whose root hash did not match.
+         *
+         * @return the number of blocks whose root hash did not match.
+         */
+        public long mismatches() {
+            return mismatches;
+        }
+
+        /**
+         * return the number of transactions hashed.
+         *
+         * @return the number of transactions hashed.
+         */
+        public long transactions() {
+            return transactions;
+        }
+
+        /**
+         * return the duration of the audit in nanoseconds.
+         *
+         * @return the duration of the audit in nanoseconds.
+         */
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * return the throughput of the audit in blocks per second.
+         *
+         * @return the throughput of the audit in blocks per second.
+         */
+        public double blocksPerSecond() {
+            return elapsedNanos == 0 ? 0 : audited * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * return the throughput of the audit in transactions per second.
+         *
+         * @return the throughput of the audit in transactions per second.
+         */
+        public double transactionsPerSecond() {
+            return elapsedNanos == 0 ? 0 : transactions * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * toString method.
+         *
+         * @return String representation of the result.
+         */
+        public String toString() {
+            return String.format("%d blocks, %d mismatches, %d transactions in %.3f s (%.1f blocks/s, %.1f tx/s)",
+                    audited, mismatches, transactions, elapsedNanos / 1e9, blocksPerSecond(),
+                    transactionsPerSecond());
+        }
+    }
+
+    /**
+     * The number of worker threads.
+     */
+    private final int parallelism;
+    /**
+     * The largest number of blocks in flight at once.
+     */
+    private final int window;
+    /**
+     * The number of audited blocks between two progress reports.
+     */
+    private final int progressInterval;
+    /**
+     * The receiver of the findings, or null.
+     */
+    private final Listener listener;
+
+    /**
+     * Constructs an auditor that uses every available processor.
+     *
+     * @param listener is the receiver of the findings, or null for none.
+     */
+    public ChainAuditor(Listener listener) {
+        this(Runtime.getRuntime().availableProcessors(), 1024, 10000, listener);
+    }
+
+    /**
+     * Constructs an auditor.
+     *
+     * @param parallelism      is the number of worker threads.
+     * @param window           is the largest number of blocks in flight at once.
+     * @param progressInterval is the number of audited blocks between two
+     *                         progress reports.
+     * @param listener         is the receiver of the findings, or null for
+     *                         none.
+     */
+    public ChainAuditor(int parallelism, int window, int progressInterval, Listener listener) {
+        if (parallelism < 1 || window < 1 || progressInterval < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.parallelism = parallelism;
+        this.window = window;
+        this.progressInterval = progressInterval;
+        this.listener = listener;
+    }
+
+    /**
+     * Audit every block of the blockchain.
+     * The chain is walked on the calling thread, which hands each block to the
+     * pool and waits whenever the window is full. The method returns once every
+     * block has been audited. Blocks are hashed with the hash scheme, tree
+     * layout and, unless their header records another one, the hash function
+     * of the chain. The counters are updated and the listener called under one
+     * lock, so the progress reports never go backwards. If the listener, or the
+     * audit of a block, throws, no more blocks are handed out and the listener
+     * is not called again; the blocks in flight are waited for, then the first
+     * exception is thrown from here.
+     *
+     * @param chain is the blockchain to audit.
+     * @return the summary of the audit.
+     * @throws RuntimeException the first exception thrown by the listener or
+     *                          by the audit of a block.
+     * @throws Error            the first error thrown by the listener or by
+     *                          the audit of a block.
+     */
+    public Result audit(Blockchain chain) {
+        HashScheme scheme = chain.scheme();
+        HashFunction chainFunction = chain.function();
+        TreeLayout layout = chain.layout();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Semaphore slots = new Semaphore(window);
+        Object lock = new Object();
+        long[] counts = new long[3];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long start = System.nanoTime();
+        try {
+            int index = 0;
+            for (Block block : chain) {
+                if (failure.get() != null) {
+                    break;
+                }
+                int blockIndex = index++;
+                slots.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        String algorithm = block.getHashAlgorithm();
+                        String root;
+                        boolean mismatch;
+                        try {
+                            HashFunction function = algorithm == null ? chainFunction
+                                    : HashFunctions.forId(algorithm);
+                            root = MerkleTree.computeRoot(block, scheme, function, layout);
+                            mismatch = !Objects.equals(root, block.getRootHash());
+                        } catch (IllegalArgumentException e) {
+                            root = null;
+                            mismatch = true;
+                        }
+                        synchronized (lock) {
+                            long done = ++counts[0];
+                            counts[2] += block.numOfTransactions();
+                            if (mismatch) {
+                                counts[1]++;
+                            }
+                            if (listener != null && failure.get() == null) {
+                                if (mismatch) {
+                                    listener.mismatch(blockIndex, block, root);
+                                }
+                                if (done % progressInterval == 0) {
+                                    listener.progress(done, counts[1], counts[2], System.nanoTime() - start);
+                                }
+                            }
+                        }
+                    } catch (RuntimeException | Error e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            slots.acquireUninterruptibly(window);
+        } finally {
+            pool.shutdown();
+        }
+        Throwable thrown = failure.get();
+        if (thrown instanceof RuntimeException) {
+            throw (RuntimeException) thrown;
+        }
+        if (thrown instanceof Error) {
+            throw (Error) thrown;
+        }
+        synchronized (lock) {
+            return new Result(counts[0], counts[1], counts[2], System.nanoTime() - start);
+        }
+    }
+}
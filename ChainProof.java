@@ -0,0 +1,71 @@
+/**
+ * This class represents the proof that a transaction is included in a
+ * blockchain. It chains the proof that the transaction is in its block with
+ * the proof that the root hash of the block is in the Merkle Mountain Range of
+ * the chain.
+ */
+public class ChainProof {
+    /**
+     * The proof that the transaction is in its block, as returned by
+     * extractMerkleProof of the Merkle Tree of the block.
+     */
+    private final MerkleProof transactionProof;
+    /**
+     * The root hash of the block that contains the transaction.
+     */
+    private final String blockRootHash;
+    /**
+     * The proof that the block is in the chain.
+     */
+    private final MerkleMountainRange.Proof blockProof;
+
+    /**
+     * Constructor for the ChainProof class.
+     *
+     * @param transactionProof is the proof that the transaction is in its block.
+     * @param blockRootHash    is the root hash of the block.
+     * @param blockProof       is the proof that the block is in the chain.
+     */
+    public ChainProof(MerkleProof transactionProof, String blockRootHash,
+            MerkleMountainRange.Proof blockProof) {
+        this.transactionProof = transactionProof;
+        this.blockRootHash = blockRootHash;
+        this.blockProof = blockProof;
+    }
+
+    /**
+     * return the proof that the transaction is in its block.
+     *
+     * @return the proof that the transaction is in its block.
+     */
+    public MerkleProof transactionProof() {
+        return transactionProof;
+    }
+
+    /**
+     * return the root hash of the block that contains the transaction.
+     *
+     * @return the root hash of the block that contains the transaction.
+     */
+    public String blockRootHash() {
+        return blockRootHash;
+    }
+
+    /**
+     * return the proof that the block is in the chain.
+     *
+     * @return the proof that the block is in the chain.
+     */
+    public MerkleMountainRange.Proof blockProof() {
+        return blockProof;
+    }
+
+    /**
+     * return the index of the block that contains the transaction.
+     *
+     * @return the index of the block that contains the transaction.
+     */
+    public int blockIndex() {
+        return blockProof.index();
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Compares building a chain from a transaction file through the in-memory
+ * priority queue of Utilities.loadTransactions with building it from an
+ * ExternalTransactionSort, which keeps only a few chunks on the heap while it
+ * sorts; both chains keep all their blocks on the heap. It checks that both
+ * chains cut the same blocks: same number of transactions and same fees in
+ * every block.
+ *
+ * <pre>
+ * java ExternalSortBenchmark [transactions] [chunk size]
+ * </pre>
+ */
+public class ExternalSortBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of transactions of the file and the
+     *             number of transactions per chunk.
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 40000;
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int threshold = 1000;
+        File text = File.createTempFile("transactions", ".txt");
+        text.deleteOnExit();
+        Random random = new Random(42);
+        try (PrintWriter out = new PrintWriter(text, "UTF-8")) {
+            for (int i = 0; i < count; i++) {
+                out.println("sender" + random.nextInt(count) + " receiver" + random.nextInt(count) + " "
+                        + random.nextInt(100000) + " " + random.nextInt(1000));
+            }
+        }
+
+        long start = System.nanoTime();
+        Blockchain inMemory = new Blockchain(Utilities.loadTransactions(text.getPath()), threshold,
+                HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256, TreeLayout.PROMOTED,
+                BlockFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        double inMemoryMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        Blockchain external;
+        int runs;
+        try (ExternalTransactionSort sorted = new ExternalTransactionSort(text.getPath(), chunkSize,
+                Runtime.getRuntime().availableProcessors(), Files.createTempDirectory("runs"))) {
+            runs = sorted.initialRuns();
+            external = new Blockchain(sorted, threshold, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                    TreeLayout.PROMOTED, BlockFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        }
+        double externalMillis = (System.nanoTime() - start) / 1e6;
+
+        if (inMemory.size() != external.size()) {
+            throw new IllegalStateException("the chains have different numbers of blocks");
+        }
+        for (int i = 0; i < inMemory.size(); i++) {
+            Iterator<Transaction> expected = inMemory.get(i).iterator();
+            for (Transaction t : external.get(i)) {
+                if (!expected.hasNext() || expected.next().getFee() != t.getFee()) {
+                    throw new IllegalStateException("block " + i + " differs");
+                }
+            }
+            if (expected.hasNext()) {
+                throw new IllegalStateException("block " + i + " differs");
+            }
+        }
+
+        System.out.printf("%d transactions, %d blocks, %d runs of %d transactions (%d-way merge passes)%n", count,
+                external.size(), runs, chunkSize, ExternalTransactionSort.FAN_IN);
+        System.out.printf("PriorityLine then chain: %.0f ms%n", inMemoryMillis);
+        System.out.printf("external sort then chain: %.0f ms%n", externalMillis);
+    }
+}
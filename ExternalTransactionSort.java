@@ -0,0 +1,473 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts a transaction file that does not fit in the heap, and streams its
+ * transactions by decreasing fee, ready to be consumed by
+ * {@link Blockchain#Blockchain(Iterator, int, HashScheme, HashFunction, TreeLayout, double)}.
+ * The file is read in chunks of a fixed number of transactions. Each chunk is
+ * sorted on a pool of threads while the next ones are read, and spilled to a
+ * temporary file as a sorted run in the binary format of
+ * {@link Transaction#CODEC}. The runs are then merged, FAN_IN at a time, until
+ * few enough are left to be merged while iterating. At most one chunk per
+ * thread, plus the one being read, is on the heap at a time, and the merge
+ * holds one transaction and one buffer per run. Only the sort is bounded this
+ * way: a Blockchain built from it still keeps every block, and so every
+ * transaction, on the heap.
+ * Transactions of the same fee come out in the order of the file; the order of
+ * such ties in a PriorityLine depends on the order of insertion instead.
+ */
+public class ExternalTransactionSort implements Iterator<Transaction>, AutoCloseable {
+    /**
+     * The largest number of runs merged at once.
+     */
+    static final int FAN_IN = 64;
+    /**
+     * The size of the buffer of each run.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Orders transactions by decreasing fee.
+     */
+    private static final Comparator<Transaction> BY_FEE = Comparator.reverseOrder();
+
+    /**
+     * The directory of the runs.
+     */
+    private final Path directory;
+    /**
+     * The number of runs spilled by the chunk sorts.
+     */
+    private final int initialRuns;
+    /**
+     * The runs being merged, ordered by their next transaction.
+     */
+    private final PriorityQueue<Run> merge;
+    /**
+     * Takes the transactions out of the runs being merged.
+     */
+    private final Merger merger;
+    /**
+     * The number of temporary files created so far.
+     */
+    private int files;
+
+    /**
+     * Sort a transaction file with chunks of a million transactions and one
+     * thread per processor, in a new temporary directory.
+     *
+     * @param file is the path of the transaction file.
+     * @throws IOException if the file cannot be read or the runs written.
+     */
+    public ExternalTransactionSort(String file) throws IOException {
+        this(file, 1 << 20, Runtime.getRuntime().availableProcessors(), Files.createTempDirectory("runs"));
+    }
+
+    /**
+     * Sort a transaction file.
+     *
+     * @param file        is the path of the transaction file.
+     * @param chunkSize   is the number of transactions sorted in memory at once.
+     * @param parallelism is the number of chunks sorted at the same time.
+     * @param directory   is the existing directory of the runs, which are
+     *                    deleted with it when the sort is closed, or when the
+     *                    sort fails.
+     * @throws IOException if the file cannot be read or the runs written.
+     */
+    public ExternalTransactionSort(String file, int chunkSize, int parallelism, Path directory) throws IOException {
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = directory;
+        try {
+            ArrayDeque<Path> runs = spill(Path.of(file), chunkSize, parallelism);
+            initialRuns = runs.size();
+            while (runs.size() > FAN_IN) {
+                ArrayDeque<Path> merged = new ArrayDeque<>();
+                while (!runs.isEmpty()) {
+                    ArrayList<Path> group = new ArrayList<>();
+                    while (group.size() < FAN_IN && !runs.isEmpty()) {
+                        group.add(runs.poll());
+                    }
+                    merged.add(group.size() == 1 ? group.get(0) : mergeRuns(group));
+                }
+                runs = merged;
+            }
+            merge = open(runs);
+        } catch (IOException | RuntimeException e) {
+            try {
+                deleteRuns();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        merger = new Merger(merge);
+    }
+
+    /**
+     * Read the file in chunks, sort them in parallel and write them as runs.
+     *
+     * @param file        is the transaction file.
+     * @param chunkSize   is the number of transactions per chunk.
+     * @param parallelism is the number of chunks sorted at the same time.
+     * @return the runs, in the order of the file.
+     * @throws IOException if the file cannot be read or the runs written.
+     */
+    private ArrayDeque<Path> spill(Path file, int chunkSize, int parallelism) throws IOException {
+        ArrayDeque<Path> runs = new ArrayDeque<>();
+        ArrayDeque<Future<Path>> pending = new ArrayDeque<>();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Transaction[] chunk = new Transaction[chunkSize];
+            int size = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                chunk[size++] = Utilities.parseTransaction(line);
+                if (size == chunkSize) {
+                    if (pending.size() == parallelism) {
+                        runs.add(await(pending.poll()));
+                    }
+                    pending.add(submit(pool, chunk, size));
+                    chunk = new Transaction[chunkSize];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                pending.add(submit(pool, chunk, size));
+            }
+            while (!pending.isEmpty()) {
+                runs.add(await(pending.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Sort a chunk and write it as a run on the pool.
+     *
+     * @param pool  is the pool of threads.
+     * @param chunk is the chunk.
+     * @param size  is the number of transactions in the chunk.
+     * @return the run, once written.
+     */
+    private Future<Path> submit(ExecutorService pool, Transaction[] chunk, int size) {
+        Path run = newRun();
+        return pool.submit(() -> {
+            Arrays.sort(chunk, 0, size, BY_FEE);
+            write(run, new Iterator<Transaction>() {
+                private int next;
+
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                public Transaction next() {
+                    return chunk[next++];
+                }
+            }, size);
+            return run;
+        });
+    }
+
+    /**
+     * Wait for a run to be written.
+     *
+     * @param future is the run being written.
+     * @return the run.
+     * @throws IOException if the run could not be written.
+     */
+    private static Path await(Future<Path> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Merge runs into one and delete them.
+     *
+     * @param group is the runs, in the order of the file.
+     * @return the merged run.
+     * @throws IOException if a run cannot be read or written.
+     */
+    private Path mergeRuns(ArrayList<Path> group) throws IOException {
+        PriorityQueue<Run> runs = open(group);
+        long count = 0;
+        for (Run run : runs) {
+            count += run.remaining + 1;
+        }
+        Path merged = newRun();
+        try {
+            write(merged, new Merger(runs), count);
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Write a run: the number of transactions, then the transactions.
+     *
+     * @param run          is the file of the run.
+     * @param transactions is the transactions, in order.
+     * @param count        is the number of transactions.
+     * @throws IOException if the run cannot be written.
+     */
+    private static void write(Path run, Iterator<Transaction> transactions, long count) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run),
+                BUFFER_SIZE))) {
+            out.writeLong(count);
+            while (transactions.hasNext()) {
+                Transaction.CODEC.write(transactions.next(), out);
+            }
+        }
+    }
+
+    /**
+     * Open runs for merging; empty runs are deleted right away.
+     *
+     * @param paths is the runs, in the order of the file.
+     * @return the runs ordered by their next transaction, ties going to the
+     * run that comes first in the file.
+     * @throws IOException if a run cannot be read.
+     */
+    private static PriorityQueue<Run> open(Iterable<Path> paths) throws IOException {
+        PriorityQueue<Run> runs = new PriorityQueue<>(
+                Comparator.comparing((Run run) -> run.current, BY_FEE).thenComparingInt(run -> run.order));
+        int order = 0;
+        try {
+            for (Path path : paths) {
+                Run run = new Run(path, order++);
+                if (run.advance()) {
+                    runs.add(run);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Run run : runs) {
+                run.close();
+            }
+            throw e;
+        }
+        return runs;
+    }
+
+    /**
+     * Name a new temporary file.
+     *
+     * @return the path of the new file.
+     */
+    private Path newRun() {
+        return directory.resolve("run" + files++ + ".bin");
+    }
+
+    /**
+     * return the number of runs spilled by the chunk sorts.
+     *
+     * @return the number of runs spilled by the chunk sorts.
+     */
+    public int initialRuns() {
+        return initialRuns;
+    }
+
+    /**
+     * Returns true if there are transactions left.
+     *
+     * @return true if there are transactions left.
+     */
+    @Override
+    public boolean hasNext() {
+        return merger.hasNext();
+    }
+
+    /**
+     * Returns the transaction with the highest fee left.
+     *
+     * @return the transaction with the highest fee left.
+     */
+    @Override
+    public Transaction next() {
+        return merger.next();
+    }
+
+    /**
+     * Close the runs and delete them and their directory.
+     *
+     * @throws IOException if a run cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Run run : merge) {
+            run.close();
+        }
+        merge.clear();
+        deleteRuns();
+    }
+
+    /**
+     * Delete the temporary files and their directory.
+     *
+     * @throws IOException if a file cannot be deleted.
+     */
+    private void deleteRuns() throws IOException {
+        for (int i = 0; i < files; i++) {
+            Files.deleteIfExists(directory.resolve("run" + i + ".bin"));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Takes transactions by decreasing fee out of a set of runs.
+     */
+    private static class Merger implements Iterator<Transaction> {
+        /**
+         * The runs ordered by their next transaction.
+         */
+        private final PriorityQueue<Run> runs;
+
+        /**
+         * Constructor for the Merger class.
+         *
+         * @param runs is the runs ordered by their next transaction.
+         */
+        private Merger(PriorityQueue<Run> runs) {
+            this.runs = runs;
+        }
+
+        /**
+         * Returns true if there are transactions left.
+         *
+         * @return true if there are transactions left.
+         */
+        public boolean hasNext() {
+            return !runs.isEmpty();
+        }
+
+        /**
+         * Returns the transaction with the highest fee left, moving its run to
+         * its next transaction.
+         *
+         * @return the transaction with the highest fee left.
+         */
+        public Transaction next() {
+            Run run = runs.poll();
+            if (run == null) {
+                throw new NoSuchElementException();
+            }
+            Transaction t = run.current;
+            try {
+                if (run.advance()) {
+                    runs.add(run);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return t;
+        }
+    }
+
+    /**
+     * A sorted run being read.
+     */
+    private static class Run {
+        /**
+         * The file of the run.
+         */
+        private final Path path;
+        /**
+         * The position of the run in the file order.
+         */
+        private final int order;
+        /**
+         * The input of the run.
+         */
+        private final DataInputStream in;
+        /**
+         * The number of transactions left after the current one.
+         */
+        private long remaining;
+        /**
+         * The current transaction.
+         */
+        private Transaction current;
+
+        /**
+         * Open a run.
+         *
+         * @param path  is the file of the run.
+         * @param order is the position of the run in the file order.
+         * @throws IOException if the run cannot be read.
+         */
+        private Run(Path path, int order) throws IOException {
+            this.path = path;
+            this.order = order;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+            this.remaining = in.readLong();
+        }
+
+        /**
+         * Read the next transaction, or close and delete the run at its end.
+         *
+         * @return false if the run is over.
+         * @throws IOException if the run cannot be read.
+         */
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                close();
+                Files.deleteIfExists(path);
+                return false;
+            }
+            remaining--;
+            current = Transaction.CODEC.read(in);
+            return true;
+        }
+
+        /**
+         * Close the input of the run.
+         *
+         * @throws IOException if the input cannot be closed.
+         */
+        private void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares quoting the fee needed to be taken into the next k blocks by
+ * walking the whole queue of pending transactions, as before, with the
+ * estimate of the fee histogram that a Mempool keeps up to date, and does the
+ * same for the median fee. For every size and k, it checks that the estimate
+ * is in the same histogram bucket as the exact answer, never below it.
+ *
+ * <pre>
+ * java FeeEstimateBenchmark [seconds per measurement] [block threshold]
+ * </pre>
+ */
+public class FeeEstimateBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of seconds of each measurement and the
+     *             cumulative fees at which a block is cut.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 0.5;
+        int threshold = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        long budget = (long) (seconds * 1e9);
+        int[] blocks = {1, 10, 100};
+        System.out.printf("%10s%6s%10s%10s%14s%14s%n", "pending", "k", "exact", "estimate", "walk ns",
+                "histogram ns");
+        for (int size = 1000; size <= 100000; size *= 10) {
+            Random random = new Random(42);
+            int[] fees = new int[size];
+            for (int i = 0; i < size; i++) {
+                fees[i] = (int) Math.min(1000000, Math.exp(random.nextGaussian() * 1.5 + 5));
+            }
+            Arrays.sort(fees);
+            Mempool mempool = new Mempool();
+            for (int i = 0; i < size; i++) {
+                mempool.enqueue(new Transaction("sender" + i, "receiver" + i, 10000, fees[i]));
+            }
+            for (int k : blocks) {
+                int exact = walk(mempool, k, threshold);
+                int estimate = mempool.feeForBlocks(k, threshold);
+                if (estimate < exact || (exact > 1 && FeeHistogram.bucket(estimate - 1)
+                        != FeeHistogram.bucket(exact - 1))) {
+                    throw new IllegalStateException("estimate " + estimate + " for exact " + exact);
+                }
+                double walkNanos = BenchmarkTimer.measure(budget, () -> walk(mempool, k, threshold));
+                double histogramNanos = BenchmarkTimer.measure(budget, () -> mempool.feeForBlocks(k, threshold));
+                System.out.printf("%10d%6d%10d%10d%14.0f%14.0f%n", size, k, exact, estimate, walkNanos,
+                        histogramNanos);
+            }
+            int median = median(mempool);
+            int quantile = mempool.feeQuantile(0.5);
+            if (FeeHistogram.bucket(quantile) != FeeHistogram.bucket(median) || quantile < median) {
+                throw new IllegalStateException("median " + quantile + " for exact " + median);
+            }
+            double walkNanos = BenchmarkTimer.measure(budget, () -> median(mempool));
+            double histogramNanos = BenchmarkTimer.measure(budget, () -> mempool.feeQuantile(0.5));
+            System.out.printf("%10d%6s%10d%10d%14.0f%14.0f%n", size, "p50", median, quantile, walkNanos,
+                    histogramNanos);
+        }
+    }
+
+    /**
+     * Find the median fee by walking every pending transaction.
+     *
+     * @param mempool is the pending transactions.
+     * @return the lower median of the fees.
+     */
+    private static int median(Mempool mempool) {
+        int[] fees = new int[mempool.size()];
+        int i = 0;
+        for (Transaction t : mempool) {
+            fees[i++] = t.getFee();
+        }
+        return fees[fees.length - (fees.length + 1) / 2];
+    }
+
+    /**
+     * Walk the pending transactions by decreasing fee until the next blocks
+     * are full.
+     *
+     * @param mempool   is the pending transactions.
+     * @param blocks    is the number of next blocks.
+     * @param threshold is the cumulative fees at which a block is cut.
+     * @return one more than the fee of the first transaction that does not fit,
+     * or 1 if they all fit.
+     */
+    private static int walk(Mempool mempool, int blocks, int threshold) {
+        long room = (long) blocks * threshold;
+        long ahead = 0;
+        for (Transaction t : mempool) {
+            if (ahead + t.getFee() >= room) {
+                return t.getFee() + 1;
+            }
+            ahead += t.getFee();
+        }
+        return 1;
+    }
+}
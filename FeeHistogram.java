@@ -0,0 +1,174 @@
+/**
+ * A histogram of the fees of a set of transactions, with logarithmic buckets.
+ * Fees below 16 have a bucket each; above, every power of two is split into 8
+ * buckets, so a bucket spans at most 1/8 of its lowest fee. Each bucket keeps
+ * the number of transactions and the sum of their fees. Adding or removing a
+ * fee costs O(1), and queries walk the 232 buckets, whatever the number of
+ * transactions. Negative fees are counted in the bucket of fee 0.
+ */
+public class FeeHistogram {
+    /**
+     * The number of fees with a bucket of their own.
+     */
+    private static final int EXACT = 16;
+    /**
+     * The number of bits of a fee that select a bucket within a power of two.
+     */
+    private static final int SUB_BITS = 3;
+    /**
+     * The number of buckets.
+     */
+    static final int BUCKETS = EXACT + (31 - 4) * (1 << SUB_BITS);
+
+    /**
+     * The number of transactions of each bucket.
+     */
+    private final long[] counts = new long[BUCKETS];
+    /**
+     * The sum of the fees of each bucket.
+     */
+    private final long[] sums = new long[BUCKETS];
+    /**
+     * The number of transactions.
+     */
+    private long count;
+    /**
+     * The sum of the fees.
+     */
+    private long total;
+
+    /**
+     * Count a fee.
+     *
+     * @param fee is the fee.
+     */
+    public void add(int fee) {
+        int b = bucket(fee);
+        counts[b]++;
+        sums[b] += fee;
+        count++;
+        total += fee;
+    }
+
+    /**
+     * Uncount a fee that was counted.
+     *
+     * @param fee is the fee.
+     */
+    public void remove(int fee) {
+        int b = bucket(fee);
+        if (counts[b] == 0) {
+            throw new IllegalArgumentException("fee " + fee + " was not counted");
+        }
+        counts[b]--;
+        sums[b] -= fee;
+        count--;
+        total -= fee;
+    }
+
+    /**
+     * return the number of transactions.
+     *
+     * @return the number of transactions.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * return the sum of the fees.
+     *
+     * @return the sum of the fees.
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Estimate a quantile of the fees.
+     *
+     * @param q is the quantile, between 0 and 1.
+     * @return the highest fee of the bucket holding the quantile, or 0 if the
+     * histogram is empty.
+     */
+    public int quantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen > 0 && seen >= rank) {
+                return highest(b);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Estimate the fee a new transaction needs to be taken into one of the next
+     * blocks, when blocks are cut from the transactions by decreasing fee as
+     * soon as their fees reach a threshold. The transaction is taken in time if
+     * the fees of the transactions ahead of it are below k times the threshold.
+     * The buckets are walked from the highest fees down; the first bucket that
+     * does not fit holds the transaction at which the next k blocks are full,
+     * and the estimate is one more than the highest fee of that bucket, so it is
+     * never below the exact answer and at most 1/8 above it. A block that is
+     * cut overshoots the threshold by part of its last fee, so the real blocks
+     * can take a lower fee in time than this rule; the estimate stays above
+     * that fee too.
+     *
+     * @param blocks    is the number of next blocks, k.
+     * @param threshold is the cumulative fees at which a block is cut.
+     * @return the fee needed, 1 if the whole set fits in the next blocks.
+     */
+    public int feeForBlocks(int blocks, int threshold) {
+        if (blocks < 1 || threshold < 1) {
+            throw new IllegalArgumentException();
+        }
+        long room = (long) blocks * threshold;
+        long ahead = 0;
+        for (int b = BUCKETS - 1; b >= 0; b--) {
+            if (counts[b] == 0) {
+                continue;
+            }
+            if (ahead + sums[b] >= room) {
+                return (int) Math.min(Integer.MAX_VALUE, highest(b) + 1L);
+            }
+            ahead += sums[b];
+        }
+        return 1;
+    }
+
+    /**
+     * Find the bucket of a fee.
+     *
+     * @param fee is the fee.
+     * @return the bucket of the fee.
+     */
+    static int bucket(int fee) {
+        if (fee < EXACT) {
+            return Math.max(0, fee);
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(fee);
+        int sub = (fee >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return EXACT + ((exponent - 4) << SUB_BITS) + sub;
+    }
+
+    /**
+     * Find the highest fee of a bucket.
+     *
+     * @param bucket is the bucket.
+     * @return the highest fee of the bucket.
+     */
+    static int highest(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int exponent = 4 + ((bucket - EXACT) >> SUB_BITS);
+        int sub = (bucket - EXACT) & ((1 << SUB_BITS) - 1);
+        long lowest = (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+        return (int) (lowest + (1L << (exponent - SUB_BITS)) - 1);
+    }
+}
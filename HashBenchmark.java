@@ -0,0 +1,80 @@
+/**
+ * Compares the registered hash functions on the work done by Merkle Trees.
+ * For each function it reports the raw throughput on leaf-sized, node-sized
+ * and larger messages, the cost of one inner node hash with each scheme, and
+ * the time to compute the root of blocks of typical sizes.
+ *
+ * <pre>
+ * java HashBenchmark [seconds per measurement]
+ * </pre>
+ */
+public class HashBenchmark {
+    /**
+     * The message lengths of the raw throughput measurement: a transaction
+     * leaf, an inner node of the domain-separated scheme, and a large message.
+     */
+    private static final int[] MESSAGE_LENGTHS = {26, 65, 1024};
+    /**
+     * The number of transactions of the blocks whose root is computed.
+     */
+    private static final int[] BLOCK_SIZES = {64, 1024, 16384};
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of seconds of each measurement.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        long budget = (long) (seconds * 1e9);
+
+        System.out.println("Raw throughput (MB/s)");
+        System.out.printf("%-14s", "algorithm");
+        for (int length : MESSAGE_LENGTHS) {
+            System.out.printf("%12s", length + " B");
+        }
+        System.out.println();
+        for (HashFunction function : HashFunctions.values()) {
+            System.out.printf("%-14s", function.id());
+            for (int length : MESSAGE_LENGTHS) {
+                byte[] message = new byte[length];
+                double nanos = BenchmarkTimer.measure(budget,
+                        () -> function.digest(message, 0, message.length)[0]);
+                System.out.printf("%12.1f", length * 1e3 / nanos);
+            }
+            System.out.println();
+        }
+
+        System.out.println("\nInner node hash (ns per node, hex in and out)");
+        System.out.printf("%-14s%12s%18s%n", "algorithm", "XOR", "DOMAIN_SEPARATED");
+        for (HashFunction function : HashFunctions.values()) {
+            String left = HashScheme.DOMAIN_SEPARATED.leafHash(function, "left");
+            String right = HashScheme.DOMAIN_SEPARATED.leafHash(function, "right");
+            System.out.printf("%-14s", function.id());
+            System.out.printf("%12.1f", BenchmarkTimer.measure(budget,
+                    () -> HashScheme.XOR.nodeHash(function, left, right).charAt(0)));
+            System.out.printf("%18.1f%n", BenchmarkTimer.measure(budget,
+                    () -> HashScheme.DOMAIN_SEPARATED.nodeHash(function, left, right).charAt(0)));
+        }
+
+        System.out.println("\nBlock root, DOMAIN_SEPARATED scheme (microseconds per block)");
+        System.out.printf("%-14s", "algorithm");
+        for (int size : BLOCK_SIZES) {
+            System.out.printf("%12s", size + " tx");
+        }
+        System.out.println();
+        for (HashFunction function : HashFunctions.values()) {
+            System.out.printf("%-14s", function.id());
+            for (int size : BLOCK_SIZES) {
+                Block block = new Block();
+                for (int i = 0; i < size; i++) {
+                    block.addTransaction(new Transaction("sender" + i, "receiver" + i, 10000 + i, i % 10));
+                }
+                double nanos = BenchmarkTimer.measure(budget, () -> MerkleTree
+                        .computeRoot(block, HashScheme.DOMAIN_SEPARATED, function).charAt(0));
+                System.out.printf("%12.1f", nanos / 1e3);
+            }
+            System.out.println();
+        }
+    }
+}
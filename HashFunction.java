@@ -0,0 +1,30 @@
+/**
+ * A cryptographic hash function used to hash the nodes of Merkle Trees.
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface HashFunction {
+    /**
+     * Returns the identifier of the algorithm, recorded in trees, proofs and
+     * block headers so that verifiers can pick the same function.
+     *
+     * @return the identifier of the algorithm.
+     */
+    String id();
+
+    /**
+     * Returns the length in bytes of the digests produced by the function.
+     *
+     * @return the length in bytes of a digest.
+     */
+    int digestLength();
+
+    /**
+     * Hashes a range of bytes.
+     *
+     * @param input  the bytes to hash.
+     * @param offset the position of the first byte to hash.
+     * @param length the number of bytes to hash.
+     * @return the digest of the bytes.
+     */
+    byte[] digest(byte[] input, int offset, int length);
+}
@@ -0,0 +1,59 @@
+/**
+ * The hash functions that can be used to build Merkle Trees, looked up by the
+ * identifier recorded in trees, proofs and block headers.
+ */
+public final class HashFunctions {
+    /**
+     * SHA-256, the original hash function of the project.
+     */
+    public static final HashFunction SHA_256 = new JdkHashFunction("SHA-256");
+    /**
+     * SHA-512 truncated to 256 bits, faster than SHA-256 on 64-bit machines
+     * without SHA extensions.
+     */
+    public static final HashFunction SHA_512_256 = new JdkHashFunction("SHA-512/256");
+    /**
+     * SHA3-256.
+     */
+    public static final HashFunction SHA3_256 = new JdkHashFunction("SHA3-256");
+    /**
+     * BLAKE2s-256, implemented in pure Java.
+     */
+    public static final HashFunction BLAKE2S_256 = new Blake2sHashFunction();
+
+    /**
+     * Every registered hash function.
+     */
+    private static final HashFunction[] ALL = {SHA_256, SHA_512_256, SHA3_256, BLAKE2S_256};
+
+    /**
+     * No instances.
+     */
+    private HashFunctions() {
+    }
+
+    /**
+     * Returns every registered hash function.
+     *
+     * @return every registered hash function.
+     */
+    public static HashFunction[] values() {
+        return ALL.clone();
+    }
+
+    /**
+     * Looks up a hash function by identifier.
+     *
+     * @param id the identifier of the algorithm.
+     * @return the hash function with the identifier.
+     * @throws IllegalArgumentException if no hash function has the identifier.
+     */
+    public static HashFunction forId(String id) {
+        for (HashFunction function : ALL) {
+            if (function.id().equals(id)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("unknown hash algorithm: " + id);
+    }
+}
@@ -0,0 +1,206 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An enum class that represents the ways leaves and inner nodes of a Merkle
+ * Tree can be hashed. Each scheme works with any {@link HashFunction}; the
+ * methods without one use SHA-256. Hash codes are exchanged as hexadecimal
+ * strings in every scheme.
+ */
+public enum HashScheme {
+    /**
+     * The original scheme. A leaf is the hash of its data and an inner node is
+     * the XOR of the hashes of the hexadecimal strings of its children.
+     * It is commutative, so it cannot tell a left child from a right one, and
+     * two identical children hash to all zeros.
+     */
+    XOR {
+        @Override
+        public String leafHash(HashFunction function, String data) {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            return Utilities.toHex(function.digest(bytes, 0, bytes.length));
+        }
+
+        @Override
+        public byte[] leafDigest(HashFunction function, byte[] buffer, int offset, int length) {
+            return function.digest(buffer, offset, length);
+        }
+
+        @Override
+        public byte[] nodeDigest(HashFunction function, byte[] left, byte[] right) {
+            byte[] bytes1 = Utilities.toHex(left).getBytes(StandardCharsets.US_ASCII);
+            byte[] bytes2 = Utilities.toHex(right).getBytes(StandardCharsets.US_ASCII);
+            byte[] encodedhash1 = function.digest(bytes1, 0, bytes1.length);
+            byte[] encodedhash2 = function.digest(bytes2, 0, bytes2.length);
+            for (int i = 0; i < encodedhash1.length; i++) {
+                encodedhash1[i] ^= encodedhash2[i];
+            }
+            return encodedhash1;
+        }
+
+        @Override
+        public String nodeHash(HashFunction function, String left, String right) {
+            byte[] bytes1 = left.getBytes(StandardCharsets.UTF_8);
+            byte[] bytes2 = right.getBytes(StandardCharsets.UTF_8);
+            byte[] encodedhash1 = function.digest(bytes1, 0, bytes1.length);
+            byte[] encodedhash2 = function.digest(bytes2, 0, bytes2.length);
+            for (int i = 0; i < encodedhash1.length; i++) {
+                encodedhash1[i] ^= encodedhash2[i];
+            }
+            return Utilities.toHex(encodedhash1);
+        }
+    },
+    /**
+     * A leaf is the hash of the byte 0x00 followed by its data and an inner
+     * node is the hash of the byte 0x01 followed by the raw digests of its left
+     * and right children. Leaves can never be confused with inner nodes and
+     * swapping two children changes the hash. An inner node costs a single
+     * digest over 2 * digestLength + 1 bytes.
+     */
+    DOMAIN_SEPARATED {
+        @Override
+        public String leafHash(HashFunction function, String data) {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            byte[] buffer = new byte[1 + bytes.length];
+            buffer[0] = LEAF_PREFIX;
+            System.arraycopy(bytes, 0, buffer, 1, bytes.length);
+            return Utilities.toHex(function.digest(buffer, 0, buffer.length));
+        }
+
+        @Override
+        public byte[] leafDigest(HashFunction function, byte[] buffer, int offset, int length) {
+            buffer[offset - 1] = LEAF_PREFIX;
+            return function.digest(buffer, offset - 1, length + 1);
+        }
+
+        @Override
+        public byte[] nodeDigest(HashFunction function, byte[] left, byte[] right) {
+            int digestLength = function.digestLength();
+            if (left.length != digestLength || right.length != digestLength) {
+                throw new IllegalArgumentException("not a " + function.id() + " digest");
+            }
+            byte[] buffer = NODE_BUFFER.get();
+            if (buffer.length < 1 + 2 * digestLength) {
+                buffer = new byte[1 + 2 * digestLength];
+                buffer[0] = NODE_PREFIX;
+                NODE_BUFFER.set(buffer);
+            }
+            System.arraycopy(left, 0, buffer, 1, digestLength);
+            System.arraycopy(right, 0, buffer, 1 + digestLength, digestLength);
+            return function.digest(buffer, 0, 1 + 2 * digestLength);
+        }
+
+        @Override
+        public String nodeHash(HashFunction function, String left, String right) {
+            int digestLength = function.digestLength();
+            if (left.length() != 2 * digestLength || right.length() != 2 * digestLength) {
+                throw new IllegalArgumentException("not a " + function.id() + " hash code");
+            }
+            byte[] buffer = NODE_BUFFER.get();
+            if (buffer.length < 1 + 2 * digestLength) {
+                buffer = new byte[1 + 2 * digestLength];
+                buffer[0] = NODE_PREFIX;
+                NODE_BUFFER.set(buffer);
+            }
+            Utilities.fromHex(left, buffer, 1);
+            Utilities.fromHex(right, buffer, 1 + digestLength);
+            return Utilities.toHex(function.digest(buffer, 0, 1 + 2 * digestLength));
+        }
+    };
+
+    /**
+     * The byte that starts the input of a leaf hash.
+     */
+    private static final byte LEAF_PREFIX = 0x00;
+    /**
+     * The byte that starts the input of an inner node hash.
+     */
+    private static final byte NODE_PREFIX = 0x01;
+    /**
+     * One buffer per thread holding the prefix and both raw child digests of
+     * an inner node.
+     */
+    private static final ThreadLocal<byte[]> NODE_BUFFER = ThreadLocal.withInitial(() -> {
+        byte[] buffer = new byte[1 + 2 * 32];
+        buffer[0] = NODE_PREFIX;
+        return buffer;
+    });
+
+    /**
+     * Hashes the data of a leaf with SHA-256.
+     *
+     * @param data is the data of the leaf.
+     * @return the hash code of the leaf.
+     */
+    public String leafHash(String data) {
+        return leafHash(HashFunctions.SHA_256, data);
+    }
+
+    /**
+     * Hashes an inner node from the hash codes of its children with SHA-256.
+     *
+     * @param left  is the hash code of the left child.
+     * @param right is the hash code of the right child.
+     * @return the hash code of the inner node.
+     */
+    public String nodeHash(String left, String right) {
+        return nodeHash(HashFunctions.SHA_256, left, right);
+    }
+
+    /**
+     * Hashes the data of a leaf.
+     *
+     * @param function is the hash function.
+     * @param data     is the data of the leaf.
+     * @return the hash code of the leaf.
+     */
+    public abstract String leafHash(HashFunction function, String data);
+
+    /**
+     * Hashes the data of a leaf given as UTF-8 bytes, without copying them.
+     * The byte just before the data belongs to the scheme, which may write a
+     * prefix there.
+     *
+     * @param function is the hash function.
+     * @param buffer   is the buffer holding the data.
+     * @param offset   is the position of the data in the buffer, at least 1.
+     * @param length   is the length of the data.
+     * @return the hash code of the leaf.
+     */
+    public String leafHash(HashFunction function, byte[] buffer, int offset, int length) {
+        return Utilities.toHex(leafDigest(function, buffer, offset, length));
+    }
+
+    /**
+     * Hashes the data of a leaf given as UTF-8 bytes into a raw digest. The
+     * byte just before the data belongs to the scheme, which may write a
+     * prefix there.
+     *
+     * @param function is the hash function.
+     * @param buffer   is the buffer holding the data.
+     * @param offset   is the position of the data in the buffer, at least 1.
+     * @param length   is the length of the data.
+     * @return the raw digest of the leaf.
+     */
+    public abstract byte[] leafDigest(HashFunction function, byte[] buffer, int offset, int length);
+
+    /**
+     * Hashes an inner node from the raw digests of its children into a raw
+     * digest, the same as nodeHash does on their hash codes.
+     *
+     * @param function is the hash function.
+     * @param left     is the raw digest of the left child.
+     * @param right    is the raw digest of the right child.
+     * @return the raw digest of the inner node.
+     */
+    public abstract byte[] nodeDigest(HashFunction function, byte[] left, byte[] right);
+
+    /**
+     * Hashes an inner node from the hash codes of its children.
+     *
+     * @param function is the hash function.
+     * @param left     is the hash code of the left child.
+     * @param right    is the hash code of the right child.
+     * @return the hash code of the inner node.
+     */
+    public abstract String nodeHash(HashFunction function, String left, String right);
+}
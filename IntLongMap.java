@@ -0,0 +1,212 @@
+/**
+ * Implements an open-addressing hash map from non-negative int keys to long
+ * values. Keys are stored in a flat array and collisions are resolved with
+ * linear probing, so no entry objects or boxed values are ever allocated.
+ */
+public class IntLongMap {
+    /**
+     * The smallest capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * The keys of the table shifted by one so that zero marks an empty slot.
+     */
+    private int[] keys;
+    /**
+     * The values of the table, parallel to the keys.
+     */
+    private long[] values;
+    /**
+     * The number of entries in the map.
+     */
+    private int size;
+
+    /**
+     * Callback used to visit the entries of the map.
+     */
+    public interface EntryVisitor {
+        /**
+         * Visits a single entry.
+         *
+         * @param key   the key of the entry.
+         * @param value the value of the entry.
+         */
+        void visit(int key, long value);
+    }
+
+    /**
+     * Constructs an empty map.
+     */
+    public IntLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty map sized to hold the expected number of entries
+     * without resizing.
+     *
+     * @param expected the expected number of entries.
+     */
+    public IntLongMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expected * 4) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new long[capacity];
+    }
+
+    /**
+     * Returns the value associated with a key.
+     *
+     * @param key          the key to look up.
+     * @param defaultValue the value returned when the key is absent.
+     * @return the value of the key, or the default value if it is absent.
+     */
+    public long get(int key, long defaultValue) {
+        int slot = find(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    /**
+     * Returns true if the map contains the key, false otherwise.
+     *
+     * @param key the key to look up.
+     * @return true if the map contains the key, false otherwise.
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Associates a value with a key, replacing any previous value.
+     *
+     * @param key   the key, which must not be negative.
+     * @param value the value.
+     */
+    public void put(int key, long value) {
+        values[slotFor(key)] = value;
+    }
+
+    /**
+     * Adds an amount to the value of a key, treating absent keys as zero.
+     *
+     * @param key   the key, which must not be negative.
+     * @param delta the amount to add.
+     * @return the new value of the key.
+     */
+    public long add(int key, long delta) {
+        int slot = slotFor(key);
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     *
+     * @return the number of entries in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the map is empty, false otherwise.
+     *
+     * @return true if the map is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits every entry of the map in table order.
+     *
+     * @param visitor the callback invoked for each entry.
+     */
+    public void forEach(EntryVisitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i] - 1, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot that holds the key, or -1 if it is absent.
+     *
+     * @param key the key to look up.
+     * @return the slot that holds the key, or -1 if it is absent.
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key + 1) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot that holds the key, claiming an empty one (with a zero
+     * value) if it is absent.
+     *
+     * @param key the key to look up.
+     * @return the slot that holds the key.
+     */
+    private int slotFor(int key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("negative key: " + key);
+        }
+        int slot = find(key);
+        if (slot >= 0) {
+            return slot;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key + 1;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Doubles the capacity of the table and re-inserts every entry.
+     */
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length << 1];
+        values = new long[oldValues.length << 1];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = mix(oldKeys[i] - 1) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Scrambles the bits of a key so that dense ids spread over the table.
+     *
+     * @param key the key.
+     * @return the scrambled key.
+     */
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
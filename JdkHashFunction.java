@@ -0,0 +1,65 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A hash function backed by a MessageDigest of the JDK. Each thread keeps its
+ * own digest instance.
+ */
+public class JdkHashFunction implements HashFunction {
+    /**
+     * The JDK name of the algorithm, also used as its identifier.
+     */
+    private final String algorithm;
+    /**
+     * The length in bytes of a digest.
+     */
+    private final int digestLength;
+    /**
+     * One digest per thread.
+     */
+    private final ThreadLocal<MessageDigest> digests;
+
+    /**
+     * Constructs a hash function for a JDK algorithm.
+     *
+     * @param algorithm the JDK name of the algorithm, such as "SHA-256".
+     * @throws IllegalArgumentException if the JDK does not provide the
+     *                                  algorithm.
+     */
+    public JdkHashFunction(String algorithm) {
+        this.algorithm = algorithm;
+        this.digestLength = newDigest(algorithm).getDigestLength();
+        this.digests = ThreadLocal.withInitial(() -> newDigest(algorithm));
+    }
+
+    /**
+     * Creates a digest for a JDK algorithm.
+     *
+     * @param algorithm the JDK name of the algorithm.
+     * @return a new digest.
+     */
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("unsupported hash algorithm: " + algorithm, e);
+        }
+    }
+
+    @Override
+    public String id() {
+        return algorithm;
+    }
+
+    @Override
+    public int digestLength() {
+        return digestLength;
+    }
+
+    @Override
+    public byte[] digest(byte[] input, int offset, int length) {
+        MessageDigest digest = digests.get();
+        digest.update(input, offset, length);
+        return digest.digest();
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.Arrays;
+
+/**
+ * A pure-Java compressor for the LZ4 block format: a sequence of literal runs
+ * and back references of at least 4 bytes within the last 64 KB, found with a
+ * hash table of the 4-byte sequences seen so far. It favours speed over ratio,
+ * which suits data that is compressed once and read often.
+ * The uncompressed length is not part of the format; callers store it.
+ */
+final class Lz4Block {
+    /**
+     * The shortest match.
+     */
+    private static final int MIN_MATCH = 4;
+    /**
+     * The number of bytes at the end that are always literals.
+     */
+    private static final int LAST_LITERALS = 5;
+    /**
+     * The number of bytes at the end where no match may start.
+     */
+    private static final int MF_LIMIT = 12;
+    /**
+     * The farthest a match may reach back.
+     */
+    private static final int MAX_DISTANCE = 65535;
+    /**
+     * The number of bits of the hash table index.
+     */
+    private static final int HASH_BITS = 12;
+    /**
+     * The largest ratio of uncompressed to compressed length: a byte of match
+     * length extension stands for at most 255 bytes.
+     */
+    private static final int MAX_RATIO = 255;
+
+    /**
+     * No instances.
+     */
+    private Lz4Block() {
+    }
+
+    /**
+     * Compresses data.
+     *
+     * @param src    the data.
+     * @param length the length of the data.
+     * @return the compressed data.
+     */
+    static byte[] compress(byte[] src, int length) {
+        byte[] dst = new byte[length + length / 255 + 16];
+        int out = 0;
+        int anchor = 0;
+        if (length >= MF_LIMIT + 1) {
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            int limit = length - MF_LIMIT;
+            int pos = 0;
+            while (pos < limit) {
+                int sequence = readInt(src, pos);
+                int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int candidate = table[h];
+                table[h] = pos;
+                if (candidate < 0 || pos - candidate > MAX_DISTANCE || readInt(src, candidate) != sequence) {
+                    pos++;
+                    continue;
+                }
+                int matchEnd = pos + MIN_MATCH;
+                int ref = candidate + MIN_MATCH;
+                int end = length - LAST_LITERALS;
+                while (matchEnd < end && src[matchEnd] == src[ref]) {
+                    matchEnd++;
+                    ref++;
+                }
+                out = writeSequence(src, anchor, pos - anchor, pos - candidate, matchEnd - pos - MIN_MATCH,
+                        dst, out);
+                pos = matchEnd;
+                anchor = pos;
+            }
+        }
+        out = writeSequence(src, anchor, length - anchor, 0, -1, dst, out);
+        return Arrays.copyOf(dst, out);
+    }
+
+    /**
+     * Decompresses data.
+     *
+     * @param src    the compressed data.
+     * @param offset the position of the compressed data.
+     * @param length the length of the compressed data.
+     * @param size   the length of the uncompressed data, which is checked
+     *               against the most the compressed data can expand to before
+     *               anything is allocated.
+     * @return the uncompressed data.
+     */
+    static byte[] decompress(byte[] src, int offset, int length, int size) {
+        if (size < 0 || size > (long) MAX_RATIO * length) {
+            throw new IllegalArgumentException("corrupt LZ4 block");
+        }
+        byte[] dst = new byte[size];
+        int in = offset;
+        int end = offset + length;
+        int out = 0;
+        try {
+            while (in < end) {
+                int token = src[in++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+                if (in == end) {
+                    break;
+                }
+                int distance = (src[in] & 0xff) | (src[in + 1] & 0xff) << 8;
+                in += 2;
+                int match = token & 15;
+                if (match == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xff;
+                        match += b;
+                    } while (b == 255);
+                }
+                match += MIN_MATCH;
+                int ref = out - distance;
+                if (distance == 0 || ref < 0 || out + match > size) {
+                    throw new IllegalArgumentException("corrupt LZ4 block");
+                }
+                for (int i = 0; i < match; i++) {
+                    dst[out++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt LZ4 block");
+        }
+        if (out != size) {
+            throw new IllegalArgumentException("corrupt LZ4 block");
+        }
+        return dst;
+    }
+
+    /**
+     * Writes one sequence: a token, the literals and, unless it is the last
+     * sequence, a back reference.
+     *
+     * @param src      the data.
+     * @param anchor   the position of the literals.
+     * @param literals the number of literals.
+     * @param distance the distance of the back reference.
+     * @param match    the length of the match minus 4, or -1 for the last
+     *                 sequence.
+     * @param dst      the output buffer.
+     * @param out      the position in the output buffer.
+     * @return the new position in the output buffer.
+     */
+    private static int writeSequence(byte[] src, int anchor, int literals, int distance, int match, byte[] dst,
+            int out) {
+        int token = out++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4 | (match < 0 ? 0 : Math.min(match, 15)));
+        if (literals >= 15) {
+            out = writeLength(literals - 15, dst, out);
+        }
+        System.arraycopy(src, anchor, dst, out, literals);
+        out += literals;
+        if (match >= 0) {
+            dst[out++] = (byte) distance;
+            dst[out++] = (byte) (distance >>> 8);
+            if (match >= 15) {
+                out = writeLength(match - 15, dst, out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Writes the rest of a long length as bytes of 255 followed by the
+     * remainder.
+     *
+     * @param length the rest of the length.
+     * @param dst    the output buffer.
+     * @param out    the position in the output buffer.
+     * @return the new position in the output buffer.
+     */
+    private static int writeLength(int length, byte[] dst, int out) {
+        while (length >= 255) {
+            dst[out++] = (byte) 255;
+            length -= 255;
+        }
+        dst[out++] = (byte) length;
+        return out;
+    }
+
+    /**
+     * Reads 4 bytes in little-endian order.
+     *
+     * @param b   the data.
+     * @param pos the position.
+     * @return the 4 bytes as an int.
+     */
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xff) | (b[pos + 1] & 0xff) << 8 | (b[pos + 2] & 0xff) << 16 | (b[pos + 3] & 0xff) << 24;
+    }
+}
@@ -11,7 +11,7 @@ public class Main {
         for (Transaction t : pq)
             System.out.println(t);
 
-        Blockchain chain = new Blockchain(pq, Integer.parseInt(args[1]));
+        Blockchain chain = new Blockchain(pq, Integer.parseInt(args[1]), HashScheme.XOR);
 
         int count = 1;
         for (Block b : chain) {
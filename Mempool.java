@@ -0,0 +1,390 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * A priority queue of pending transactions that keeps a histogram of their
+ * fees up to date on every change, so fee quotes for clients cost the same
+ * whatever the number of pending transactions, instead of a walk over the
+ * whole queue.
+ * The mempool also counts the copies of each pending transaction, so a
+ * reorganization of the chain can take out the transactions of the new
+ * branch and give back those of the dropped blocks at a cost that depends on
+ * the number of transactions moved, not on the size of the mempool: removed
+ * transactions are only marked, and skipped when they reach the head, and
+ * given back transactions are merged in one pass into a separate sorted list
+ * that is read along with the queue.
+ */
+public class Mempool extends PriorityLine<Transaction> {
+    /**
+     * The histogram of the fees of the queued transactions.
+     */
+    private final FeeHistogram fees = new FeeHistogram();
+    /**
+     * The number of pending copies of each transaction.
+     */
+    private final HashMap<Transaction, Integer> pending = new HashMap<>();
+    /**
+     * The number of copies of each transaction that were removed but are
+     * still in one of the lists.
+     */
+    private final HashMap<Transaction, Integer> removed = new HashMap<>();
+    /**
+     * The number of copies that were removed but are still in one of the
+     * lists.
+     */
+    private int removedCount;
+    /**
+     * The transactions given back by enqueueAll, by decreasing fee.
+     */
+    private SinglyLinkedList<Transaction> returned = new SinglyLinkedList<>();
+
+    /**
+     * Constructs an empty mempool.
+     */
+    public Mempool() {
+        super();
+    }
+
+    /**
+     * Reads a mempool from a snapshot file written by writeSnapshot. The
+     * transactions are appended in the order of the file, then counted into
+     * the histogram of the fees and the copies of each transaction, so fee
+     * quotes and reorganizations work on the restored mempool.
+     *
+     * @param file the file.
+     * @return the mempool.
+     * @throws IOException if the file cannot be read, is not a snapshot or
+     *                     fails its checksum.
+     */
+    public static Mempool readSnapshot(File file) throws IOException {
+        Mempool mempool = new Mempool();
+        PriorityLine.readSnapshot(file, Transaction.CODEC, mempool);
+        for (Transaction t : mempool) {
+            mempool.pending.merge(t, 1, Integer::sum);
+            mempool.fees.add(t.getFee());
+        }
+        return mempool;
+    }
+
+    /**
+     * Adds a transaction to the mempool.
+     *
+     * @param t the transaction to add.
+     */
+    @Override
+    public synchronized void enqueue(Transaction t) {
+        if (!revive(t)) {
+            super.enqueue(t);
+        }
+    }
+
+    /**
+     * Adds transactions to the mempool, such as those of the blocks dropped by
+     * a reorganization. They are sorted and merged in one pass into the list
+     * of given back transactions, so the cost does not depend on the number
+     * of transactions already queued.
+     *
+     * @param transactions the transactions to add.
+     */
+    public synchronized void enqueueAll(Collection<Transaction> transactions) {
+        ArrayList<Transaction> added = new ArrayList<>(transactions.size());
+        for (Transaction t : transactions) {
+            if (!revive(t)) {
+                added.add(t);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        added.sort(Collections.reverseOrder());
+        SinglyLinkedList<Transaction> merged = new SinglyLinkedList<>();
+        Iterator<Transaction> old = returned.iterator();
+        Transaction next = old.hasNext() ? old.next() : null;
+        for (Transaction t : added) {
+            while (next != null && next.compareTo(t) >= 0) {
+                merged.add(next);
+                next = old.hasNext() ? old.next() : null;
+            }
+            merged.add(t);
+        }
+        while (next != null) {
+            merged.add(next);
+            next = old.hasNext() ? old.next() : null;
+        }
+        returned = merged;
+    }
+
+    /**
+     * Count a new copy of a transaction, taking back a removed copy still in
+     * one of the lists if there is one.
+     *
+     * @param t is the transaction.
+     * @return true if a removed copy was taken back, false if the transaction
+     * must be put in a list.
+     */
+    private boolean revive(Transaction t) {
+        pending.merge(t, 1, Integer::sum);
+        fees.add(t.getFee());
+        return forget(t);
+    }
+
+    /**
+     * Removes one pending copy of each of the transactions, if there is one,
+     * such as those of the blocks a reorganization adds to the chain. The
+     * copies are only marked as removed, so the cost does not depend on the
+     * number of transactions queued.
+     *
+     * @param transactions the transactions to remove.
+     * @return the number of transactions removed.
+     */
+    public synchronized int removeAll(Iterable<Transaction> transactions) {
+        int count = 0;
+        for (Transaction t : transactions) {
+            if (release(t)) {
+                removed.merge(t, 1, Integer::sum);
+                removedCount++;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stop counting a pending copy of a transaction.
+     *
+     * @param t is the transaction.
+     * @return true if a copy was pending.
+     */
+    private boolean release(Transaction t) {
+        Integer count = pending.get(t);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            pending.remove(t);
+        } else {
+            pending.put(t, count - 1);
+        }
+        fees.remove(t.getFee());
+        return true;
+    }
+
+    /**
+     * Drop the mark of one removed copy of a transaction.
+     *
+     * @param t is the transaction.
+     * @return true if a copy was marked as removed.
+     */
+    private boolean forget(Transaction t) {
+        Integer count = removed.get(t);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            removed.remove(t);
+        } else {
+            removed.put(t, count - 1);
+        }
+        removedCount--;
+        return true;
+    }
+
+    /**
+     * Removes the transaction with the highest fee from the mempool.
+     *
+     * @return removed transaction.
+     */
+    @Override
+    public synchronized Transaction dequeue() {
+        Transaction t = head(true);
+        release(t);
+        return t;
+    }
+
+    /**
+     * Returns the transaction with the highest fee from the mempool.
+     *
+     * @return the transaction with the highest fee from the mempool.
+     */
+    @Override
+    public synchronized Transaction peek() {
+        return head(false);
+    }
+
+    /**
+     * Find the transaction with the highest fee, in the queue or in the list of
+     * given back transactions, dropping the removed copies on the way.
+     *
+     * @param take is true to take the transaction out of its list.
+     * @return the transaction with the highest fee.
+     */
+    private Transaction head(boolean take) {
+        while (true) {
+            boolean fromReturned = !returned.isEmpty()
+                    && (super.isEmpty() || returned.get(0).compareTo(super.peek()) > 0);
+            Transaction t = fromReturned ? returned.get(0) : super.peek();
+            if (forget(t)) {
+                take(fromReturned);
+            } else {
+                return take ? take(fromReturned) : t;
+            }
+        }
+    }
+
+    /**
+     * Take the first transaction out of the queue or out of the list of given
+     * back transactions.
+     *
+     * @param fromReturned is true to take it out of the list of given back
+     *                     transactions.
+     * @return the transaction.
+     */
+    private Transaction take(boolean fromReturned) {
+        return fromReturned ? returned.remove(0) : super.dequeue();
+    }
+
+    /**
+     * Returns the number of transactions in the mempool.
+     *
+     * @return the number of transactions in the mempool.
+     */
+    @Override
+    public synchronized int size() {
+        return super.size() + returned.size() - removedCount;
+    }
+
+    /**
+     * Returns true if the mempool is empty, false otherwise.
+     *
+     * @return true if the mempool is empty, false otherwise.
+     */
+    @Override
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes every transaction matching a condition.
+     *
+     * @param filter the condition of the transactions to remove.
+     * @return the number of transactions removed.
+     */
+    @Override
+    public synchronized int removeIf(Predicate<? super Transaction> filter) {
+        purge();
+        Predicate<Transaction> matching = t -> {
+            if (filter.test(t)) {
+                release(t);
+                return true;
+            }
+            return false;
+        };
+        int count = super.removeIf(matching);
+        SinglyLinkedList<Transaction> kept = new SinglyLinkedList<>();
+        for (Transaction t : returned) {
+            if (!matching.test(t)) {
+                kept.add(t);
+            }
+        }
+        count += returned.size() - kept.size();
+        returned = kept;
+        return count;
+    }
+
+    /**
+     * Returns an iterator over the transactions in the mempool, by decreasing
+     * fee. The removed copies are dropped first, and the given back
+     * transactions are merged with the queue.
+     *
+     * @return an iterator over the transactions in the mempool.
+     */
+    @Override
+    public synchronized Iterator<Transaction> iterator() {
+        purge();
+        if (returned.isEmpty()) {
+            return super.iterator();
+        }
+        SinglyLinkedList<Transaction> merged = new SinglyLinkedList<>();
+        Iterator<Transaction> other = returned.iterator();
+        Transaction next = other.next();
+        for (Transaction t : (Iterable<Transaction>) super::iterator) {
+            while (next != null && next.compareTo(t) > 0) {
+                merged.add(next);
+                next = other.hasNext() ? other.next() : null;
+            }
+            merged.add(t);
+        }
+        while (next != null) {
+            merged.add(next);
+            next = other.hasNext() ? other.next() : null;
+        }
+        return merged.iterator();
+    }
+
+    /**
+     * Drop the removed copies from both lists.
+     */
+    private void purge() {
+        if (removedCount == 0) {
+            return;
+        }
+        super.removeIf(this::forget);
+        SinglyLinkedList<Transaction> kept = new SinglyLinkedList<>();
+        for (Transaction t : returned) {
+            if (!forget(t)) {
+                kept.add(t);
+            }
+        }
+        returned = kept;
+    }
+
+    /**
+     * Estimate the fee a new transaction needs to be taken into one of the next
+     * blocks of a chain cut at a fee threshold.
+     *
+     * @param blocks    is the number of next blocks.
+     * @param threshold is the cumulative fees at which a block is cut.
+     * @return the fee needed, at most 1/8 above the exact answer.
+     * @see FeeHistogram#feeForBlocks(int, int)
+     */
+    public synchronized int feeForBlocks(int blocks, int threshold) {
+        return fees.feeForBlocks(blocks, threshold);
+    }
+
+    /**
+     * Estimate the fee a new transaction needs to be taken into one of the next
+     * blocks of a chain.
+     *
+     * @param blocks is the number of next blocks.
+     * @param chain  is the chain, whose threshold cuts the blocks.
+     * @return the fee needed, at most 1/8 above the exact answer.
+     */
+    public int feeForBlocks(int blocks, Blockchain chain) {
+        return feeForBlocks(blocks, chain.threshold());
+    }
+
+    /**
+     * Estimate a quantile of the fees of the pending transactions.
+     *
+     * @param q is the quantile, between 0 and 1.
+     * @return the quantile, at most 1/8 above the exact one.
+     */
+    public synchronized int feeQuantile(double q) {
+        return fees.quantile(q);
+    }
+
+    /**
+     * return the sum of the fees of the pending transactions.
+     *
+     * @return the sum of the fees of the pending transactions.
+     */
+    public synchronized long totalFees() {
+        return fees.total();
+    }
+}
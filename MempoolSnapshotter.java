@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a snapshot of a priority queue to a file at a fixed period, on a
+ * background daemon thread. The queue keeps serving enqueue and dequeue while
+ * a snapshot is written: it is only locked while its elements are captured.
+ * Snapshots are written one at a time, whether they are periodic or asked
+ * for. A failed snapshot is remembered and retried at the next period.
+ *
+ * @param <T> the type of the elements of the queue.
+ */
+public class MempoolSnapshotter<T extends Comparable<T>> implements AutoCloseable {
+    /**
+     * The queue.
+     */
+    private final PriorityLine<T> queue;
+    /**
+     * The snapshot file.
+     */
+    private final File file;
+    /**
+     * The codec of the elements.
+     */
+    private final PriorityLine.Codec<T> codec;
+    /**
+     * The thread that writes the snapshots.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * The number of snapshots written.
+     */
+    private final AtomicLong snapshots = new AtomicLong();
+    /**
+     * The error of the last snapshot, or null if it succeeded.
+     */
+    private volatile Exception lastError;
+
+    /**
+     * Constructs a snapshotter and schedules its first snapshot one period from
+     * now.
+     *
+     * @param queue        is the queue.
+     * @param file         is the snapshot file.
+     * @param codec        is the codec of the elements.
+     * @param periodMillis is the time between two snapshots, in milliseconds.
+     */
+    public MempoolSnapshotter(PriorityLine<T> queue, File file, PriorityLine.Codec<T> codec, long periodMillis) {
+        if (periodMillis < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.queue = queue;
+        this.file = file;
+        this.codec = codec;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mempool-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshot, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write a snapshot now, on the calling thread, after the one in progress
+     * if any, since both go through the same temporary file. Errors are
+     * caught, so that a failure never cancels the periodic snapshots.
+     *
+     * @return true if the snapshot was written.
+     */
+    public synchronized boolean snapshot() {
+        try {
+            queue.writeSnapshot(file, codec);
+            snapshots.incrementAndGet();
+            lastError = null;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            lastError = e;
+            return false;
+        }
+    }
+
+    /**
+     * return the number of snapshots written.
+     *
+     * @return the number of snapshots written.
+     */
+    public long snapshots() {
+        return snapshots.get();
+    }
+
+    /**
+     * return the error of the last snapshot, or null if it succeeded.
+     *
+     * @return the error of the last snapshot, or null if it succeeded.
+     */
+    public Exception lastError() {
+        return lastError;
+    }
+
+    /**
+     * Stop the periodic snapshots, waiting for one in progress, and write a
+     * final snapshot. If the one in progress does not finish within a minute,
+     * or the wait is interrupted, no final snapshot is written.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        boolean terminated;
+        try {
+            terminated = scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            terminated = false;
+        }
+        if (terminated) {
+            snapshot();
+        }
+    }
+}
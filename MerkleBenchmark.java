@@ -0,0 +1,46 @@
+/**
+ * Compares the padded and the promoted layouts of Merkle Trees on the worst
+ * case of the padded layout: blocks of 2^k + 1 transactions, which the padded
+ * layout nearly doubles with dummy leaves. For each size it reports the number
+ * of inner node hashes and the time to build the tree with each layout.
+ *
+ * <pre>
+ * java MerkleBenchmark [seconds per measurement]
+ * </pre>
+ */
+public class MerkleBenchmark {
+    /**
+     * The exponents k of the block sizes 2^k + 1.
+     */
+    private static final int[] EXPONENTS = {4, 7, 10, 13};
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of seconds of each measurement.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        long budget = (long) (seconds * 1e9);
+
+        System.out.printf("%-10s%16s%16s%14s%14s%10s%n", "tx", "padded inner", "promoted inner", "padded us",
+                "promoted us", "speedup");
+        for (int k : EXPONENTS) {
+            int size = (1 << k) + 1;
+            Block block = new Block();
+            for (int i = 0; i < size; i++) {
+                block.addTransaction(new Transaction("sender" + i, "receiver" + i, 10000 + i, i % 10));
+            }
+            int paddedInner = new MerkleTree(block, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                    TreeLayout.PADDED).innerNodes();
+            int promotedInner = new MerkleTree(block, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                    TreeLayout.PROMOTED).innerNodes();
+            double padded = BenchmarkTimer.measure(budget, () -> new MerkleTree(block,
+                    HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256, TreeLayout.PADDED).innerNodes());
+            double promoted = BenchmarkTimer.measure(budget, () -> new MerkleTree(block,
+                    HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256, TreeLayout.PROMOTED).innerNodes());
+            System.out.printf("%-10d%16d%16d%14.1f%14.1f%9.2fx%n", size, paddedInner, promotedInner, padded / 1e3,
+                    promoted / 1e3, padded / promoted);
+        }
+    }
+}
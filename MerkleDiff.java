@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * Finds the leaves on which two Merkle Trees of the same shape disagree, for
+ * example the trees that two nodes built for what should be the same block.
+ * The trees are walked top-down one level at a time, and only the children of
+ * nodes whose hash codes differ are compared, so k differing leaves out of n
+ * cost O(k log n) hash codes and one batch of requests per level, instead of
+ * the n hash codes of a full traversal.
+ * Either tree can be remote: the walk only asks a {@link NodeFetcher} for the
+ * hash codes of nodes given by their level and position.
+ */
+public class MerkleDiff {
+    /**
+     * Provides the hash codes of the nodes of a Merkle Tree, local or remote.
+     */
+    public interface NodeFetcher {
+        /**
+         * Returns the number of leaves of the tree, dummy leaves included.
+         *
+         * @return the number of leaves of the tree.
+         */
+        int leafCount();
+
+        /**
+         * Returns the hash codes of nodes of one level.
+         *
+         * @param level   is the level of the nodes, from 0 for the leaves.
+         * @param indices is the positions of the nodes in their level.
+         * @return the hash codes of the nodes, in the order of the positions.
+         */
+        String[] nodeHashes(int level, int[] indices);
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private MerkleDiff() {
+    }
+
+    /**
+     * Wrap a local Merkle Tree.
+     *
+     * @param tree is the tree.
+     * @return a fetcher of the hash codes of the tree.
+     */
+    public static NodeFetcher local(MerkleTree tree) {
+        return new NodeFetcher() {
+            public int leafCount() {
+                return tree.leafCount();
+            }
+
+            public String[] nodeHashes(int level, int[] indices) {
+                String[] hashes = new String[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    hashes[i] = tree.nodeHash(level, indices[i]);
+                }
+                return hashes;
+            }
+        };
+    }
+
+    /**
+     * Find the leaves on which two local trees disagree.
+     *
+     * @param local  is one tree.
+     * @param remote is the other tree.
+     * @return the positions of the differing leaves, in increasing order.
+     */
+    public static int[] diff(MerkleTree local, MerkleTree remote) {
+        return diff(local(local), local(remote));
+    }
+
+    /**
+     * Find the leaves on which two trees disagree.
+     * Start from the roots. At each level, keep the nodes whose hash codes
+     * differ, then compare their children on the level below. A node copied up
+     * from an odd level has a single child, which is the same node.
+     * Both trees must have been built with the same hash scheme and hash
+     * function.
+     *
+     * @param local  is one tree.
+     * @param remote is the other tree.
+     * @return the positions of the differing leaves, in increasing order.
+     */
+    public static int[] diff(NodeFetcher local, NodeFetcher remote) {
+        int leafCount = local.leafCount();
+        if (leafCount != remote.leafCount()) {
+            throw new IllegalArgumentException("trees of " + leafCount + " and " + remote.leafCount()
+                    + " leaves cannot be aligned");
+        }
+        if (leafCount == 0) {
+            return new int[0];
+        }
+        int[] widths = new int[Integer.SIZE + 1];
+        widths[0] = leafCount;
+        int height = 0;
+        while (widths[height] > 1) {
+            widths[height + 1] = (widths[height] + 1) >> 1;
+            height++;
+        }
+        int[] differing = differing(local, remote, height, new int[] {0});
+        for (int level = height - 1; level >= 0 && differing.length > 0; level--) {
+            int[] children = new int[2 * differing.length];
+            int count = 0;
+            for (int index : differing) {
+                children[count++] = 2 * index;
+                if (2 * index + 1 < widths[level]) {
+                    children[count++] = 2 * index + 1;
+                }
+            }
+            differing = differing(local, remote, level, Arrays.copyOf(children, count));
+        }
+        return differing;
+    }
+
+    /**
+     * Compare nodes of one level.
+     *
+     * @param local   is one tree.
+     * @param remote  is the other tree.
+     * @param level   is the level of the nodes.
+     * @param indices is the positions of the nodes, in increasing order.
+     * @return the positions of the nodes whose hash codes differ.
+     */
+    private static int[] differing(NodeFetcher local, NodeFetcher remote, int level, int[] indices) {
+        String[] ours = local.nodeHashes(level, indices);
+        String[] theirs = remote.nodeHashes(level, indices);
+        int[] differing = new int[indices.length];
+        int count = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (!ours[i].equals(theirs[i])) {
+                differing[count++] = indices[i];
+            }
+        }
+        return Arrays.copyOf(differing, count);
+    }
+}
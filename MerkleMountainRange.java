@@ -0,0 +1,335 @@
+import java.util.ArrayList;
+
+/**
+ * This class represents a Merkle Mountain Range, an append-only accumulator
+ * over a sequence of leaf hashes.
+ * The leaves are covered by a list of perfect binary trees (the mountains) of
+ * strictly decreasing height, one per set bit of the number of leaves. The
+ * root of the range bags the peaks of the mountains from right to left.
+ * Appending a leaf and proving the inclusion of a leaf both cost O(log n).
+ */
+public class MerkleMountainRange {
+    /**
+     * The nodes of every height. The node at index i of height h covers the
+     * leaves from i * 2^h to (i + 1) * 2^h - 1.
+     */
+    private ArrayList<ArrayList<String>> levels;
+    /**
+     * The number of leaves in the range.
+     */
+    private int leafCount;
+    /**
+     * The hash scheme used to combine nodes.
+     */
+    private HashScheme scheme;
+    /**
+     * The hash function used to combine nodes.
+     */
+    private HashFunction function;
+
+    /**
+     * Constructs an empty range that combines nodes with the domain-separated
+     * hash scheme and SHA-256.
+     */
+    public MerkleMountainRange() {
+        this(HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256);
+    }
+
+    /**
+     * Constructs an empty range.
+     *
+     * @param scheme   is the hash scheme used to combine nodes.
+     * @param function is the hash function used to combine nodes.
+     */
+    public MerkleMountainRange(HashScheme scheme, HashFunction function) {
+        this.scheme = scheme;
+        this.function = function;
+        levels = new ArrayList<>();
+        levels.add(new ArrayList<>());
+    }
+
+    /**
+     * Append a leaf to the range.
+     * Add the leaf to the lowest level. While the level it landed in holds an
+     * even number of nodes, hash its last two nodes into the level above.
+     *
+     * @param leafHash is the hash of the new leaf.
+     * @return the index of the new leaf.
+     */
+    public int append(String leafHash) {
+        int index = leafCount++;
+        ArrayList<String> level = levels.get(0);
+        level.add(leafHash);
+        int height = 0;
+        while (level.size() % 2 == 0) {
+            String hash = scheme.nodeHash(function, level.get(level.size() - 2), level.get(level.size() - 1));
+            height++;
+            if (levels.size() == height) {
+                levels.add(new ArrayList<>());
+            }
+            level = levels.get(height);
+            level.add(hash);
+        }
+        return index;
+    }
+
+    /**
+     * Drop the last leaves of the range, as if they had never been appended.
+     * A node of height h at index i only depends on the leaves it covers, so
+     * every level keeps its first size / 2^h nodes. It costs O(log n) per
+     * dropped leaf.
+     *
+     * @param size is the number of leaves to keep.
+     */
+    public void truncate(int size) {
+        if (size < 0 || size > leafCount) {
+            throw new IllegalArgumentException("cannot truncate " + leafCount + " leaves to " + size);
+        }
+        for (int height = 0; height < levels.size(); height++) {
+            ArrayList<String> level = levels.get(height);
+            int keep = size >> height;
+            level.subList(keep, level.size()).clear();
+        }
+        leafCount = size;
+    }
+
+    /**
+     * return the number of leaves in the range.
+     *
+     * @return the number of leaves in the range.
+     */
+    public int size() {
+        return leafCount;
+    }
+
+    /**
+     * return the hash of a leaf.
+     *
+     * @param index is the index of the leaf.
+     * @return the hash of the leaf.
+     */
+    public String leaf(int index) {
+        return levels.get(0).get(index);
+    }
+
+    /**
+     * Bag the peaks of the mountains from right to left into a single hash.
+     *
+     * @return the root hash of the range, or null if the range is empty.
+     */
+    public String rootHash() {
+        String root = null;
+        for (int height = 0; height < levels.size(); height++) {
+            if ((leafCount & (1 << height)) != 0) {
+                String peak = levels.get(height).get((leafCount >> height) - 1);
+                root = root == null ? peak : scheme.nodeHash(function, peak, root);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Extract the proof that a leaf is included in the range.
+     * The proof holds the siblings on the path from the leaf to the peak of its
+     * mountain, followed by the peaks of every other mountain from left to
+     * right.
+     *
+     * @param index is the index of the leaf.
+     * @return the proof of inclusion of the leaf.
+     */
+    public Proof extractProof(int index) {
+        if (index < 0 || index >= leafCount) {
+            throw new IndexOutOfBoundsException("leaf " + index + " of " + leafCount);
+        }
+        int height = mountainHeight(index, leafCount);
+        SinglyLinkedList<String> path = new SinglyLinkedList<>();
+        for (int h = 0; h < height; h++) {
+            path.add(levels.get(h).get((index >> h) ^ 1));
+        }
+        SinglyLinkedList<String> peaks = new SinglyLinkedList<>();
+        for (int h = levels.size() - 1; h >= 0; h--) {
+            if ((leafCount & (1 << h)) != 0 && h != height) {
+                peaks.add(levels.get(h).get((leafCount >> h) - 1));
+            }
+        }
+        return new Proof(scheme, function.id(), index, leafCount, path, peaks);
+    }
+
+    /**
+     * Verify that a leaf is included in a range.
+     * Hash the leaf up to the peak of its mountain, going left or right
+     * according to the bits of the leaf index, then bag the recomputed peak
+     * together with the other peaks and compare the result to the root.
+     *
+     * @param leafHash is the hash of the leaf.
+     * @param proof    is the proof extracted with the method extractProof.
+     * @param rootHash is the root hash of the range.
+     * @return true if the leaf is verified, false otherwise.
+     */
+    public static boolean verify(String leafHash, Proof proof, String rootHash) {
+        if (proof == null || leafHash == null || rootHash == null || proof.index < 0
+                || proof.index >= proof.leafCount) {
+            return false;
+        }
+        int height = mountainHeight(proof.index, proof.leafCount);
+        if (proof.path.size() != height || proof.peaks.size() != Integer.bitCount(proof.leafCount) - 1) {
+            return false;
+        }
+        HashFunction function;
+        try {
+            function = HashFunctions.forId(proof.algorithm);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        HashScheme scheme = proof.scheme;
+        String hash = leafHash;
+        int h = 0;
+        for (String sibling : proof.path) {
+            if (((proof.index >> h) & 1) == 0) {
+                hash = scheme.nodeHash(function, hash, sibling);
+            } else {
+                hash = scheme.nodeHash(function, sibling, hash);
+            }
+            h++;
+        }
+        String[] peaks = new String[proof.peaks.size() + 1];
+        int position = Integer.bitCount(proof.leafCount >>> (height + 1));
+        int i = 0;
+        for (String peak : proof.peaks) {
+            if (i == position) {
+                i++;
+            }
+            peaks[i++] = peak;
+        }
+        peaks[position] = hash;
+        String root = peaks[peaks.length - 1];
+        for (i = peaks.length - 2; i >= 0; i--) {
+            root = scheme.nodeHash(function, peaks[i], root);
+        }
+        return root.equals(rootHash);
+    }
+
+    /**
+     * Find the height of the mountain that covers a leaf.
+     *
+     * @param index     is the index of the leaf.
+     * @param leafCount is the number of leaves in the range.
+     * @return the height of the mountain that covers the leaf.
+     */
+    private static int mountainHeight(int index, int leafCount) {
+        int offset = 0;
+        for (int h = 31 - Integer.numberOfLeadingZeros(leafCount); h >= 0; h--) {
+            if ((leafCount & (1 << h)) != 0) {
+                offset += 1 << h;
+                if (index < offset) {
+                    return h;
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException("leaf " + index + " of " + leafCount);
+    }
+
+    /**
+     * Proof that a leaf is included in a Merkle Mountain Range.
+     */
+    public static class Proof {
+        /**
+         * The hash scheme of the range.
+         */
+        private final HashScheme scheme;
+        /**
+         * The identifier of the hash algorithm of the range.
+         */
+        private final String algorithm;
+        /**
+         * The index of the leaf.
+         */
+        private final int index;
+        /**
+         * The number of leaves in the range the proof was extracted from.
+         */
+        private final int leafCount;
+        /**
+         * The siblings on the path from the leaf to the peak of its mountain.
+         */
+        private final SinglyLinkedList<String> path;
+        /**
+         * The peaks of every other mountain, from left to right.
+         */
+        private final SinglyLinkedList<String> peaks;
+
+        /**
+         * Constructor for the Proof class.
+         *
+         * @param scheme    is the hash scheme of the range.
+         * @param algorithm is the identifier of the hash algorithm of the range.
+         * @param index     is the index of the leaf.
+         * @param leafCount is the number of leaves in the range.
+         * @param path      is the siblings on the path from the leaf to its peak.
+         * @param peaks     is the peaks of every other mountain.
+         */
+        public Proof(HashScheme scheme, String algorithm, int index, int leafCount,
+                SinglyLinkedList<String> path, SinglyLinkedList<String> peaks) {
+            this.scheme = scheme;
+            this.algorithm = algorithm;
+            this.index = index;
+            this.leafCount = leafCount;
+            this.path = path;
+            this.peaks = peaks;
+        }
+
+        /**
+         * return the hash scheme of the range.
+         *
+         * @return the hash scheme of the range.
+         */
+        public HashScheme scheme() {
+            return scheme;
+        }
+
+        /**
+         * return the identifier of the hash algorithm of the range.
+         *
+         * @return the identifier of the hash algorithm of the range.
+         */
+        public String algorithm() {
+            return algorithm;
+        }
+
+        /**
+         * return the index of the leaf.
+         *
+         * @return the index of the leaf.
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * return the number of leaves in the range.
+         *
+         * @return the number of leaves in the range.
+         */
+        public int leafCount() {
+            return leafCount;
+        }
+
+        /**
+         * return the siblings on the path from the leaf to its peak.
+         *
+         * @return the siblings on the path from the leaf to its peak.
+         */
+        public SinglyLinkedList<String> path() {
+            return path;
+        }
+
+        /**
+         * return the peaks of every other mountain, from left to right.
+         *
+         * @return the peaks of every other mountain, from left to right.
+         */
+        public SinglyLinkedList<String> peaks() {
+            return peaks;
+        }
+    }
+}
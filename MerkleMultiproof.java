@@ -0,0 +1,95 @@
+/**
+ * This class represents the proof that several leaves are contained in the
+ * same Merkle Tree. It holds only the hash codes that cannot be derived from
+ * the leaves themselves: siblings shared by several paths, or computed from
+ * two proven nodes, are left out. The verifier rebuilds the root in a single
+ * bottom-up pass, level by level, visiting the proven positions from left to
+ * right and taking the next hash code whenever a node has no proven sibling.
+ */
+public class MerkleMultiproof {
+    /**
+     * The hash scheme of the tree.
+     */
+    private final HashScheme scheme;
+    /**
+     * The identifier of the hash algorithm of the tree.
+     */
+    private final String algorithm;
+    /**
+     * The number of leaves of the tree.
+     */
+    private final int leafCount;
+    /**
+     * The position of each proven leaf, in the order of the transactions the
+     * proof was extracted for.
+     */
+    private final int[] leafIndices;
+    /**
+     * The hash codes needed to rebuild the root, in the order the verifier
+     * consumes them.
+     */
+    private final SinglyLinkedList<String> hashes;
+
+    /**
+     * Constructor for the MerkleMultiproof class.
+     *
+     * @param scheme      is the hash scheme of the tree.
+     * @param algorithm   is the identifier of the hash algorithm of the tree.
+     * @param leafCount   is the number of leaves of the tree.
+     * @param leafIndices is the position of each proven leaf.
+     * @param hashes      is the hash codes needed to rebuild the root.
+     */
+    public MerkleMultiproof(HashScheme scheme, String algorithm, int leafCount, int[] leafIndices,
+            SinglyLinkedList<String> hashes) {
+        this.scheme = scheme;
+        this.algorithm = algorithm;
+        this.leafCount = leafCount;
+        this.leafIndices = leafIndices;
+        this.hashes = hashes;
+    }
+
+    /**
+     * return the hash scheme of the tree.
+     *
+     * @return the hash scheme of the tree.
+     */
+    public HashScheme scheme() {
+        return scheme;
+    }
+
+    /**
+     * return the identifier of the hash algorithm of the tree.
+     *
+     * @return the identifier of the hash algorithm of the tree.
+     */
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * return the number of leaves of the tree.
+     *
+     * @return the number of leaves of the tree.
+     */
+    public int leafCount() {
+        return leafCount;
+    }
+
+    /**
+     * return the position of each proven leaf.
+     *
+     * @return the position of each proven leaf.
+     */
+    public int[] leafIndices() {
+        return leafIndices.clone();
+    }
+
+    /**
+     * return the hash codes needed to rebuild the root.
+     *
+     * @return the hash codes needed to rebuild the root.
+     */
+    public SinglyLinkedList<String> hashes() {
+        return hashes;
+    }
+}
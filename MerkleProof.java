@@ -0,0 +1,93 @@
+/**
+ * This class represents the proof that a single leaf is contained in a Merkle
+ * Tree. Unlike the plain list of hash codes returned by extractProof, it
+ * records the position of the leaf together with the hash scheme and the hash
+ * algorithm of the tree, so that order-sensitive schemes can be verified and
+ * verifiers pick the right hash function.
+ */
+public class MerkleProof {
+    /**
+     * The hash scheme of the tree.
+     */
+    private final HashScheme scheme;
+    /**
+     * The identifier of the hash algorithm of the tree.
+     */
+    private final String algorithm;
+    /**
+     * The position of the leaf among the leaves of the tree, from 0.
+     */
+    private final int leafIndex;
+    /**
+     * The number of leaves of the tree.
+     */
+    private final int leafCount;
+    /**
+     * The hash codes of the siblings on the path from the leaf to the root.
+     */
+    private final SinglyLinkedList<String> siblings;
+
+    /**
+     * Constructor for the MerkleProof class.
+     *
+     * @param scheme    is the hash scheme of the tree.
+     * @param algorithm is the identifier of the hash algorithm of the tree.
+     * @param leafIndex is the position of the leaf, from 0.
+     * @param leafCount is the number of leaves of the tree.
+     * @param siblings  is the hash codes of the siblings from the leaf to the
+     *                  root.
+     */
+    public MerkleProof(HashScheme scheme, String algorithm, int leafIndex, int leafCount,
+            SinglyLinkedList<String> siblings) {
+        this.scheme = scheme;
+        this.algorithm = algorithm;
+        this.leafIndex = leafIndex;
+        this.leafCount = leafCount;
+        this.siblings = siblings;
+    }
+
+    /**
+     * return the hash scheme of the tree.
+     *
+     * @return the hash scheme of the tree.
+     */
+    public HashScheme scheme() {
+        return scheme;
+    }
+
+    /**
+     * return the identifier of the hash algorithm of the tree.
+     *
+     * @return the identifier of the hash algorithm of the tree.
+     */
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * return the position of the leaf, from 0.
+     *
+     * @return the position of the leaf, from 0.
+     */
+    public int leafIndex() {
+        return leafIndex;
+    }
+
+    /**
+     * return the number of leaves of the tree.
+     *
+     * @return the number of leaves of the tree.
+     */
+    public int leafCount() {
+        return leafCount;
+    }
+
+    /**
+     * return the hash codes of the siblings from the leaf to the root.
+     *
+     * @return the hash codes of the siblings from the leaf to the root.
+     */
+    public SinglyLinkedList<String> siblings() {
+        return siblings;
+    }
+}
@@ -1,4 +1,5 @@
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * This class represents the Merkle Tree of a single Block.
@@ -17,93 +18,258 @@ public class MerkleTree {
      * Private variable root serves as pointer to the root of the tree.
      */
     private Node root;
+    /**
+     * Private variable scheme for the way the nodes of the tree are hashed.
+     */
+    private HashScheme scheme;
+    /**
+     * Private variable function for the hash function of the tree.
+     */
+    private HashFunction function;
+    /**
+     * Private variable layout for the shape of the tree.
+     */
+    private TreeLayout layout;
+    /**
+     * Private variable levels for the nodes of each level of the tree, from the
+     * leaves (dummy leaves included) at index 0 up to the root.
+     */
+    private Node[][] levels;
+    /**
+     * Private variable leafIndex for the position of the leftmost leaf holding
+     * each hash code, built on the first batch of proofs.
+     */
+    private volatile HashMap<String, Integer> leafIndex;
+
+    /**
+     * Construct the Merkle Tree of a block with the original XOR hash scheme.
+     *
+     * @param block is the block for which the Merkle Tree is being constructed.
+     */
+    public MerkleTree(Block block) {
+        this(block, HashScheme.XOR);
+    }
+
+    /**
+     * Construct the padded Merkle Tree of a block with SHA-256.
+     *
+     * @param block  is the block for which the Merkle Tree is being constructed.
+     * @param scheme is the way the nodes of the tree are hashed.
+     */
+    public MerkleTree(Block block, HashScheme scheme) {
+        this(block, scheme, HashFunctions.SHA_256);
+    }
+
+    /**
+     * Construct the padded Merkle Tree of a block.
+     *
+     * @param block    is the block for which the Merkle Tree is being
+     *                 constructed.
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     */
+    public MerkleTree(Block block, HashScheme scheme, HashFunction function) {
+        this(block, scheme, function, TreeLayout.PADDED);
+    }
 
     /**
      * Get the list of transactions from the block and construct the Merkle Tree.
-     * Create a list of Node to contain the hash of each transaction.
+     * Create an array of Node to contain the hash of each transaction.
      * Loop through the list of transactions and generate the hash of each
-     * transaction then create a Node for each hash in the list of Node.
-     * If the size of the list of Node is not a power of 2, add dummy nodes to the
-     * list of Node until the size of the list of Node is a power of 2.
+     * transaction then create a Node for each hash in the array of Node.
+     * With the padded layout, fill the rest of the array with dummy nodes so
+     * that its size is a power of 2; the dummy hash is computed only once.
      * Call the makeTree method to construct the Merkle Tree.
-     * Set the root hash of the block to the hash of the root of the Merkle Tree.
+     * Set the root hash of the block to the hash of the root of the Merkle Tree
+     * and record the hash algorithm in the block.
      *
-     * @param block is the block for which the Merkle Tree is being constructed.
+     * @param block    is the block for which the Merkle Tree is being
+     *                 constructed.
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     * @param layout   is the shape of the tree.
      */
-    public MerkleTree(Block block) {
-        Iterator<Transaction> transactions = block.iterator();
-        if (!transactions.hasNext()) {
+    public MerkleTree(Block block, HashScheme scheme, HashFunction function, TreeLayout layout) {
+        this.scheme = scheme;
+        this.function = function;
+        this.layout = layout;
+        int count = block.numOfTransactions();
+        if (count == 0) {
             root = null;
+            levels = new Node[][] {new Node[0]};
         } else {
-            SinglyLinkedList<Node> hashes = new SinglyLinkedList<>();
-            while (transactions.hasNext()) {
-                Transaction transaction = transactions.next();
-                String hash = Utilities.cryptographicHashFunction(transaction.toString());
-                Node node = new Node(hash, null, null);
-                hashes.add(node);
+            Node[] hashes = new Node[leafCount(count, layout)];
+            int i = 0;
+            for (Transaction transaction : block) {
+                String hash = scheme.leafHash(function, transaction.toString());
+                hashes[i++] = new Node(hash, null, null);
             }
-            while (!powerOfTwo(hashes.size())) {
-                String hashDummy = Utilities.cryptographicHashFunction("DUMMY");
-                Node node = new Node(hashDummy, null, null);
-                hashes.add(node);
+            if (i < hashes.length) {
+                String hashDummy = scheme.leafHash(function, "DUMMY");
+                while (i < hashes.length) {
+                    hashes[i++] = new Node(hashDummy, null, null);
+                }
             }
             root = makeTree(hashes);
             block.setRootHash(root.hash);
+            block.setHashAlgorithm(function.id());
         }
     }
 
     /**
-     * Check if the size of the list of Node is 1.
-     * If the size of the list of Node is 1, set the height of the tree to the
-     * current height of the tree.
-     * Create 2 children nodes for the parent node.
-     * Generate the hash for parent and create a Node for the parent.
-     * Add the parent Node to the end of the list of Node.
-     * Increment the number of inner nodes in the tree.
-     * Remove the first two Node in the list of Node since they have been used.
-     * Call the makeTree method recursively and increment the height of the tree.
+     * Compute the root hash of the Merkle Tree of a block with the original XOR
+     * hash scheme, without building the tree and without changing the block.
      *
-     * @param hashes is the list of Node containing the hash of each
-     *               transaction.
-     * @return the root of the Merkle Tree.
+     * @param block is the block whose root hash is computed.
+     * @return the root hash of the Merkle Tree of the block, or null if the
+     * block has no transactions.
      */
-    private Node makeTree(SinglyLinkedList<Node> hashes) {
-        if (hashes.size() == 1) {
-            return hashes.get(0);
-        }
+    public static String computeRoot(Block block) {
+        return computeRoot(block, HashScheme.XOR);
+    }
+
+    /**
+     * Compute the root hash of the padded Merkle Tree of a block with SHA-256,
+     * without building the tree and without changing the block.
+     *
+     * @param block  is the block whose root hash is computed.
+     * @param scheme is the way the nodes of the tree are hashed.
+     * @return the root hash of the Merkle Tree of the block, or null if the
+     * block has no transactions.
+     */
+    public static String computeRoot(Block block, HashScheme scheme) {
+        return computeRoot(block, scheme, HashFunctions.SHA_256);
+    }
 
-        Node kid1Left = hashes.get(0);
-        Node kid2Right = hashes.get(1);
-        String hash = Utilities.cryptographicHashFunction(kid1Left.hash, kid2Right.hash);
-        Node parent = new Node(hash, kid1Left, kid2Right);
+    /**
+     * Compute the root hash of the padded Merkle Tree of a block without
+     * building the tree and without changing the block.
+     *
+     * @param block    is the block whose root hash is computed.
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     * @return the root hash of the Merkle Tree of the block, or null if the
+     * block has no transactions.
+     */
+    public static String computeRoot(Block block, HashScheme scheme, HashFunction function) {
+        return computeRoot(block, scheme, function, TreeLayout.PADDED);
+    }
 
-        hashes.add(parent);
-        innerNodes++;
-        hashes.remove(0);
-        hashes.remove(0);
+    /**
+     * Compute the root hash of the Merkle Tree of a block without building the
+     * tree and without changing the block.
+     * The leaf hashes are laid out exactly like the constructor does, then each
+     * level is hashed pairwise in place into a single array, promoting the last
+     * hash of odd levels.
+     *
+     * @param block    is the block whose root hash is computed.
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     * @param layout   is the shape of the tree.
+     * @return the root hash of the Merkle Tree of the block, or null if the
+     * block has no transactions.
+     */
+    public static String computeRoot(Block block, HashScheme scheme, HashFunction function, TreeLayout layout) {
+        int count = block.numOfTransactions();
+        if (count == 0) {
+            return null;
+        }
+        String[] leafHashes = new String[count];
+        int i = 0;
+        for (Transaction transaction : block) {
+            leafHashes[i++] = scheme.leafHash(function, transaction.toString());
+        }
+        return computeRoot(leafHashes, scheme, function, layout);
+    }
 
-        return makeTree(hashes);
+    /**
+     * Compute the root hash of a Merkle Tree from the hash codes of its
+     * transactions, laid out and hashed like the constructor does.
+     *
+     * @param leafHashes is the hash code of each transaction, in order.
+     * @param scheme     is the way the nodes of the tree are hashed.
+     * @param function   is the hash function of the tree.
+     * @param layout     is the shape of the tree.
+     * @return the root hash of the Merkle Tree, or null if there are no
+     * transactions.
+     */
+    static String computeRoot(String[] leafHashes, HashScheme scheme, HashFunction function, TreeLayout layout) {
+        int count = leafHashes.length;
+        if (count == 0) {
+            return null;
+        }
+        int width = leafCount(count, layout);
+        String[] level = Arrays.copyOf(leafHashes, width);
+        if (count < width) {
+            String hashDummy = scheme.leafHash(function, "DUMMY");
+            for (int i = count; i < width; i++) {
+                level[i] = hashDummy;
+            }
+        }
+        while (width > 1) {
+            for (int j = 0; j + 1 < width; j += 2) {
+                level[j >> 1] = scheme.nodeHash(function, level[j], level[j + 1]);
+            }
+            if ((width & 1) != 0) {
+                level[width >> 1] = level[width - 1];
+            }
+            width = (width + 1) >> 1;
+        }
+        return level[0];
     }
 
     /**
-     * Check if the size of the list of Node is a power of 2.
+     * Compute the number of leaves of the tree of a block.
      *
-     * @param size is the size of the list of Node.
-     * @return true if the size of the list of Node is a power of 2, false
-     * otherwise.
+     * @param count  is the number of transactions in the block.
+     * @param layout is the shape of the tree.
+     * @return the number of transactions, rounded up to a power of 2 of at
+     * least 2 with the padded layout.
      */
-    private boolean powerOfTwo(int size) {
-        if (size == 0) {
-            return false;
-        } else {
-            int a = (int) Math.max(Math.ceil(Math.log(size) / Math.log(2)), 1);
-            this.height = a;
-            if (Math.pow(2, a) == size) {
-                return true;
-            } else {
-                return false;
+    static int leafCount(int count, TreeLayout layout) {
+        if (layout == TreeLayout.PROMOTED || count == 0) {
+            return count;
+        }
+        return count <= 2 ? 2 : Integer.highestOneBit(count - 1) << 1;
+    }
+
+    /**
+     * Build the tree one level at a time, starting from the leaves.
+     * Pair the nodes of the current level from left to right, generate the hash
+     * of each parent and create a Node for it, incrementing the number of inner
+     * nodes in the tree.
+     * If the level has an odd number of nodes, promote the last one unchanged
+     * to the next level.
+     * Stop when a level holds a single node and set the height of the tree to
+     * the number of levels built above the leaves.
+     *
+     * @param hashes is the array of Node containing the hash of each leaf.
+     * @return the root of the Merkle Tree.
+     */
+    private Node makeTree(Node[] hashes) {
+        Node[][] built = new Node[Integer.SIZE + 1][];
+        built[0] = hashes;
+        Node[] level = hashes;
+        int h = 0;
+        while (level.length > 1) {
+            Node[] parents = new Node[(level.length + 1) >> 1];
+            for (int j = 0; j + 1 < level.length; j += 2) {
+                Node kid1Left = level[j];
+                Node kid2Right = level[j + 1];
+                String hash = scheme.nodeHash(function, kid1Left.hash, kid2Right.hash);
+                parents[j >> 1] = new Node(hash, kid1Left, kid2Right);
+                innerNodes++;
             }
+            if ((level.length & 1) != 0) {
+                parents[parents.length - 1] = level[level.length - 1];
+            }
+            level = parents;
+            built[++h] = level;
         }
+        height = h;
+        levels = new Node[h + 1][];
+        System.arraycopy(built, 0, levels, 0, h + 1);
+        return level[0];
     }
 
     /**
@@ -124,6 +290,53 @@ public class MerkleTree {
         return innerNodes;
     }
 
+    /**
+     * return the way the nodes of the tree are hashed.
+     *
+     * @return the way the nodes of the tree are hashed.
+     */
+    public HashScheme scheme() {
+        return scheme;
+    }
+
+    /**
+     * return the identifier of the hash algorithm of the tree.
+     *
+     * @return the identifier of the hash algorithm of the tree.
+     */
+    public String algorithm() {
+        return function.id();
+    }
+
+    /**
+     * return the shape of the tree.
+     *
+     * @return the shape of the tree.
+     */
+    public TreeLayout layout() {
+        return layout;
+    }
+
+    /**
+     * return the number of leaves of the tree, dummy leaves included.
+     *
+     * @return the number of leaves of the tree.
+     */
+    public int leafCount() {
+        return levels[0].length;
+    }
+
+    /**
+     * return the hash code of a node.
+     *
+     * @param level is the level of the node, from 0 for the leaves.
+     * @param index is the position of the node in its level, from 0.
+     * @return the hash code of the node.
+     */
+    public String nodeHash(int level, int index) {
+        return levels[level][index].hash;
+    }
+
     /**
      * Create an empty queue and an empty list to store hash codes.
      * Enqueue the root of the tree to the queue.
@@ -247,7 +460,7 @@ public class MerkleTree {
      * transaction is contained in the block that this Merkle Tree encodes.
      */
     public SinglyLinkedList<String> extractProof(Transaction t) {
-        SinglyLinkedList<String> proof = findProof(root, t);
+        SinglyLinkedList<String> proof = findProof(root, scheme.leafHash(function, t.toString()));
         if (proof != null) {
             return proof;
         } else {
@@ -263,36 +476,36 @@ public class MerkleTree {
      * transaction, add the hash code of the left child to the list of hash codes.
      * Call the helper function recursively.
      *
-     * @param node        is the root of the tree.
-     * @param transaction is the transaction that we want to verify it's contained in a
-     *                    certain block.
+     * @param node     is the root of the tree.
+     * @param leafHash is the hash code of the transaction that we want to verify
+     *                 it's contained in a certain block.
      * @return a list of the hash codes that are required to prove that a
      * transaction is contained in the block that this Merkle Tree encodes.
      */
-    private SinglyLinkedList<String> findProof(Node node, Transaction transaction) {
+    private SinglyLinkedList<String> findProof(Node node, String leafHash) {
         if (node == null) {
             return null;
         }
 
-        if (node.left != null && node.left.hash.equals(Utilities.cryptographicHashFunction(transaction.toString()))) {
+        if (node.left != null && node.left.hash.equals(leafHash)) {
             SinglyLinkedList<String> proof = new SinglyLinkedList<>();
             proof.add(node.right.hash);
             return proof;
         }
 
-        if (node.right != null && node.right.hash.equals(Utilities.cryptographicHashFunction(transaction.toString()))) {
+        if (node.right != null && node.right.hash.equals(leafHash)) {
             SinglyLinkedList<String> proof = new SinglyLinkedList<>();
             proof.add(node.left.hash);
             return proof;
         }
 
-        SinglyLinkedList<String> leftProof = findProof(node.left, transaction);
+        SinglyLinkedList<String> leftProof = findProof(node.left, leafHash);
         if (leftProof != null) {
             leftProof.add(node.right.hash);
             return leftProof;
         }
 
-        SinglyLinkedList<String> rightProof = findProof(node.right, transaction);
+        SinglyLinkedList<String> rightProof = findProof(node.right, leafHash);
         if (rightProof != null) {
             rightProof.add(node.left.hash);
             return rightProof;
@@ -301,6 +514,151 @@ public class MerkleTree {
         return null;
     }
 
+    /**
+     * Find the leftmost leaf holding the hash of the transaction, then climb the
+     * levels of the tree, collecting the sibling of the node at each level.
+     * A node without a sibling was promoted, so it contributes nothing.
+     *
+     * @param t is the transaction that we want to verify it's contained
+     * @return the proof that the transaction is contained in the block that this
+     * Merkle Tree encodes, or null if it is not.
+     */
+    public MerkleProof extractMerkleProof(Transaction t) {
+        String leafHash = scheme.leafHash(function, t.toString());
+        Node[] leaves = levels[0];
+        int index = -1;
+        for (int i = 0; i < leaves.length && index < 0; i++) {
+            if (leaves[i].hash.equals(leafHash)) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return null;
+        }
+
+        return proofOf(index);
+    }
+
+    /**
+     * Extract the proofs of many transactions in a single pass.
+     * The leaf hashes of all the transactions are computed at once and looked
+     * up in an index of the leaves, built the first time and kept with the
+     * tree, so each proof only costs the climb to the root.
+     *
+     * @param transactions is the transactions whose proofs are extracted.
+     * @return the proof of each transaction, in the same order, or null for a
+     * transaction that is not in the block.
+     */
+    public MerkleProof[] extractMerkleProofs(Transaction[] transactions) {
+        String[] hashes = new String[transactions.length];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = scheme.leafHash(function, transactions[i].toString());
+        }
+        HashMap<String, Integer> index = leafIndex();
+        MerkleProof[] proofs = new MerkleProof[transactions.length];
+        for (int i = 0; i < proofs.length; i++) {
+            Integer position = index.get(hashes[i]);
+            proofs[i] = position == null ? null : proofOf(position);
+        }
+        return proofs;
+    }
+
+    /**
+     * Extract a single proof that many transactions are contained in the block.
+     * The proven positions are sorted and climbed level by level together; at
+     * each level a node whose sibling is also proven needs no hash code, and a
+     * promoted node needs none either, so each needed sibling is emitted
+     * exactly once, in the order the verifier consumes them.
+     *
+     * @param transactions is the transactions, in any order.
+     * @return the multiproof of the transactions, or null if one of them is not
+     * in the block.
+     */
+    public MerkleMultiproof extractMultiproof(Transaction[] transactions) {
+        if (transactions.length == 0 || root == null) {
+            return null;
+        }
+        String[] leafHashes = new String[transactions.length];
+        for (int i = 0; i < leafHashes.length; i++) {
+            leafHashes[i] = scheme.leafHash(function, transactions[i].toString());
+        }
+        HashMap<String, Integer> index = leafIndex();
+        int[] leafIndices = new int[transactions.length];
+        for (int i = 0; i < leafIndices.length; i++) {
+            Integer position = index.get(leafHashes[i]);
+            if (position == null) {
+                return null;
+            }
+            leafIndices[i] = position;
+        }
+
+        int[] positions = leafIndices.clone();
+        Arrays.sort(positions);
+        int count = 0;
+        for (int i = 0; i < positions.length; i++) {
+            if (count == 0 || positions[count - 1] != positions[i]) {
+                positions[count++] = positions[i];
+            }
+        }
+        SinglyLinkedList<String> hashes = new SinglyLinkedList<>();
+        for (int level = 0; level < height; level++) {
+            int width = levels[level].length;
+            int parents = 0;
+            for (int i = 0; i < count; i++) {
+                int position = positions[i];
+                int sibling = position ^ 1;
+                if (sibling < width) {
+                    if ((position & 1) == 0 && i + 1 < count && positions[i + 1] == sibling) {
+                        i++;
+                    } else {
+                        hashes.add(levels[level][sibling].hash);
+                    }
+                }
+                positions[parents++] = position >> 1;
+            }
+            count = parents;
+        }
+        return new MerkleMultiproof(scheme, function.id(), levels[0].length, leafIndices, hashes);
+    }
+
+    /**
+     * Get the index of the leaves, building it the first time.
+     *
+     * @return the position of the leftmost leaf holding each hash code.
+     */
+    private HashMap<String, Integer> leafIndex() {
+        HashMap<String, Integer> index = leafIndex;
+        if (index == null) {
+            Node[] leaves = levels[0];
+            index = new HashMap<>(leaves.length * 2);
+            for (int i = 0; i < leaves.length; i++) {
+                index.putIfAbsent(leaves[i].hash, i);
+            }
+            leafIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Climb the levels of the tree from a leaf, collecting the sibling of the
+     * node at each level.
+     *
+     * @param index is the position of the leaf, from 0.
+     * @return the proof of the leaf.
+     */
+    private MerkleProof proofOf(int index) {
+        SinglyLinkedList<String> siblings = new SinglyLinkedList<>();
+        int position = index;
+        for (int level = 0; level < height; level++) {
+            int sibling = position ^ 1;
+            if (sibling < levels[level].length) {
+                siblings.add(levels[level][sibling].hash);
+            }
+            position >>= 1;
+        }
+        return new MerkleProof(scheme, function.id(), index, levels[0].length, siblings);
+    }
+
     /**
      * Private nested class Node that represents a node in the Merkle Tree.
      */
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares proving many transactions of the same block with one multiproof
+ * against one single proof per transaction. For each batch size it reports
+ * the number of hash codes sent and the time to verify the whole batch.
+ *
+ * <pre>
+ * java MultiproofBenchmark [seconds per measurement] [transactions per block]
+ * </pre>
+ */
+public class MultiproofBenchmark {
+    /**
+     * The number of transactions proven together.
+     */
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of seconds of each measurement and
+     *             the number of transactions of the block.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 16384;
+        long budget = (long) (seconds * 1e9);
+
+        Block block = new Block();
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Transaction t = new Transaction("sender" + i, "receiver" + i, 10000 + i, i % 10);
+            block.addTransaction(t);
+            transactions.add(t);
+        }
+        MerkleTree tree = new MerkleTree(block, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                TreeLayout.PROMOTED);
+        String root = block.getRootHash();
+
+        System.out.printf("Block of %d transactions%n", size);
+        System.out.printf("%-8s%14s%14s%18s%18s%n", "batch", "single hashes", "multi hashes", "single verify us",
+                "multi verify us");
+        for (int k : BATCH_SIZES) {
+            Collections.shuffle(transactions, new Random(k));
+            Transaction[] batch = transactions.subList(0, Math.min(k, size)).toArray(new Transaction[0]);
+            MerkleProof[] proofs = tree.extractMerkleProofs(batch);
+            MerkleMultiproof multiproof = tree.extractMultiproof(batch);
+            int singleHashes = 0;
+            for (MerkleProof proof : proofs) {
+                singleHashes += proof.siblings().size();
+            }
+            double single = BenchmarkTimer.measure(budget, () -> {
+                int verified = 0;
+                for (int i = 0; i < batch.length; i++) {
+                    if (Utilities.verifyTransaction(batch[i], proofs[i], root)) {
+                        verified++;
+                    }
+                }
+                return verified;
+            });
+            double multi = BenchmarkTimer.measure(budget,
+                    () -> Utilities.verifyTransactions(batch, multiproof, root) ? 1 : 0);
+            System.out.printf("%-8d%14d%14d%18.1f%18.1f%n", batch.length, singleHashes, multiproof.hashes().size(),
+                    single / 1e3, multi / 1e3);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Compares a MerkleTree with an OffHeapMerkleTree of the same block: time to
+ * build, heap retained by the tree, storage outside the heap, and the
+ * collections run while building. It then builds an off-heap tree in a
+ * memory-mapped file from transactions generated on the fly, which never holds
+ * the block on the heap at all, and checks that every tree has the same root
+ * hash.
+ *
+ * <pre>
+ * java OffHeapMerkleBenchmark [transactions]
+ * </pre>
+ */
+public class OffHeapMerkleBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of transactions.
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        HashScheme scheme = HashScheme.DOMAIN_SEPARATED;
+        HashFunction function = HashFunctions.SHA_256;
+        TreeLayout layout = TreeLayout.PROMOTED;
+        Iterable<Transaction> generated = () -> new Iterator<Transaction>() {
+            private int i;
+
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            public Transaction next() {
+                int n = i++;
+                return new Transaction("sender" + n % 1000, "receiver" + n % 997, 10000 + n % 90000, n % 10);
+            }
+        };
+        Block block = new Block();
+        for (Transaction t : generated) {
+            block.addTransaction(t);
+        }
+
+        System.out.printf("%d transactions%n", count);
+        System.out.printf("%-22s%10s%12s%14s%8s%10s%n", "tree", "build ms", "heap MB", "off-heap MB", "GCs",
+                "GC ms");
+
+        long heap = usedHeap();
+        long[] gc = gcStats();
+        long start = System.nanoTime();
+        MerkleTree onHeap = new MerkleTree(block, scheme, function, layout);
+        double millis = (System.nanoTime() - start) / 1e6;
+        long[] after = gcStats();
+        long retained = usedHeap() - heap;
+        String root = block.getRootHash();
+        System.out.printf("%-22s%10.0f%12.1f%14.1f%8d%10d%n", "MerkleTree", millis, retained / 1048576.0, 0.0,
+                after[0] - gc[0], after[1] - gc[1]);
+        if (onHeap.height() < 0) {
+            throw new IllegalStateException();
+        }
+        onHeap = null;
+
+        heap = usedHeap();
+        gc = gcStats();
+        start = System.nanoTime();
+        try (OffHeapMerkleTree offHeap = new OffHeapMerkleTree(block, count, scheme, function, layout, null)) {
+            millis = (System.nanoTime() - start) / 1e6;
+            after = gcStats();
+            retained = Math.max(0, usedHeap() - heap);
+            check(root, offHeap);
+            System.out.printf("%-22s%10.0f%12.1f%14.1f%8d%10d%n", "OffHeapMerkleTree", millis,
+                    retained / 1048576.0, offHeap.offHeapBytes() / 1048576.0, after[0] - gc[0], after[1] - gc[1]);
+        }
+
+        block = null;
+        Path file = Files.createTempFile("merkle", ".levels");
+        heap = usedHeap();
+        gc = gcStats();
+        start = System.nanoTime();
+        try (OffHeapMerkleTree mapped = new OffHeapMerkleTree(generated, count, scheme, function, layout, file)) {
+            millis = (System.nanoTime() - start) / 1e6;
+            after = gcStats();
+            retained = Math.max(0, usedHeap() - heap);
+            check(root, mapped);
+            System.out.printf("%-22s%10.0f%12.1f%14.1f%8d%10d%n", "mapped, streamed", millis,
+                    retained / 1048576.0, mapped.offHeapBytes() / 1048576.0, after[0] - gc[0], after[1] - gc[1]);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Check that an off-heap tree has the expected root hash.
+     *
+     * @param root is the expected root hash.
+     * @param tree is the tree.
+     */
+    private static void check(String root, OffHeapMerkleTree tree) {
+        if (!root.equals(tree.rootHash())) {
+            throw new IllegalStateException("the off-heap tree has another root hash");
+        }
+    }
+
+    /**
+     * Measure the heap in use after a full collection.
+     *
+     * @return the bytes of heap in use.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Sum the collections of every collector.
+     *
+     * @return the number of collections and their total time in milliseconds.
+     */
+    private static long[] gcStats() {
+        long[] stats = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            stats[0] += Math.max(0, bean.getCollectionCount());
+            stats[1] += Math.max(0, bean.getCollectionTime());
+        }
+        return stats;
+    }
+}
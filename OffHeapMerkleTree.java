@@ -0,0 +1,555 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A Merkle Tree whose hashes live outside the Java heap, for blocks of tens of
+ * millions of transactions. The raw digests of every level are stored one
+ * after the other in direct buffers, or in a memory-mapped file, cut into
+ * chunks of at most 1 GB. The tree holds no node objects: a node is a level
+ * and a position in that level, proofs and traversals read the digests in
+ * place, and the heap used by the tree does not grow with the block.
+ * The hashes are the same as those of {@link MerkleTree} for the same scheme,
+ * hash function and layout, so the proofs verify with
+ * {@link Utilities#verifyTransaction(Transaction, MerkleProof, String)}.
+ * Direct buffers and mappings are released by the garbage collector once the
+ * tree is closed and unreachable.
+ */
+public class OffHeapMerkleTree implements AutoCloseable {
+    /**
+     * Receives the hash codes of a traversal one at a time.
+     */
+    public interface Visitor {
+        /**
+         * Called for each node of the traversal.
+         *
+         * @param hash the hash code of the node.
+         */
+        void visit(String hash);
+    }
+
+    /**
+     * The largest chunk of storage, in bytes.
+     */
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    /**
+     * The way the nodes of the tree are hashed.
+     */
+    private final HashScheme scheme;
+    /**
+     * The hash function of the tree.
+     */
+    private final HashFunction function;
+    /**
+     * The shape of the tree.
+     */
+    private final TreeLayout layout;
+    /**
+     * The length of a digest.
+     */
+    private final int digestLength;
+    /**
+     * The number of digests in a chunk.
+     */
+    private final int digestsPerChunk;
+    /**
+     * The number of nodes of each level, from the leaves up.
+     */
+    private final int[] widths;
+    /**
+     * The position of the first node of each level in the storage.
+     */
+    private final long[] levelStarts;
+    /**
+     * The number of inner nodes in the tree.
+     */
+    private int innerNodes;
+    /**
+     * The storage of the digests, or null once closed.
+     */
+    private ByteBuffer[] chunks;
+    /**
+     * The mapped file, or null for direct buffers.
+     */
+    private FileChannel channel;
+
+    /**
+     * Construct the tree of a block in direct buffers and seal the block with
+     * its root hash and hash algorithm, like the constructor of MerkleTree.
+     *
+     * @param block    is the block.
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     * @param layout   is the shape of the tree.
+     */
+    public OffHeapMerkleTree(Block block, HashScheme scheme, HashFunction function, TreeLayout layout) {
+        this(scheme, function, layout, block.numOfTransactions());
+        try {
+            allocate(null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        build(block, block.numOfTransactions());
+        if (widths[0] > 0) {
+            block.setRootHash(rootHash());
+            block.setHashAlgorithm(function.id());
+        }
+    }
+
+    /**
+     * Construct the tree of a stream of transactions, which are read once and
+     * never kept.
+     *
+     * @param transactions is the transactions, in order.
+     * @param count        is the number of transactions.
+     * @param scheme       is the way the nodes of the tree are hashed.
+     * @param function     is the hash function of the tree.
+     * @param layout       is the shape of the tree.
+     * @param file         is the file to map the hashes to, which is created or
+     *                     overwritten, or null to use direct buffers.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public OffHeapMerkleTree(Iterable<Transaction> transactions, int count, HashScheme scheme,
+            HashFunction function, TreeLayout layout, Path file) throws IOException {
+        this(scheme, function, layout, count);
+        allocate(file);
+        build(transactions, count);
+    }
+
+    /**
+     * Lay out the levels of the tree.
+     *
+     * @param scheme   is the way the nodes of the tree are hashed.
+     * @param function is the hash function of the tree.
+     * @param layout   is the shape of the tree.
+     * @param count    is the number of transactions.
+     */
+    private OffHeapMerkleTree(HashScheme scheme, HashFunction function, TreeLayout layout, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.scheme = scheme;
+        this.function = function;
+        this.layout = layout;
+        this.digestLength = function.digestLength();
+        this.digestsPerChunk = CHUNK_BYTES / digestLength;
+        int[] w = new int[Integer.SIZE + 1];
+        w[0] = MerkleTree.leafCount(count, layout);
+        int levels = 1;
+        while (w[levels - 1] > 1) {
+            w[levels] = (w[levels - 1] + 1) >> 1;
+            levels++;
+        }
+        this.widths = Arrays.copyOf(w, levels);
+        this.levelStarts = new long[levels];
+        for (int l = 1; l < levels; l++) {
+            levelStarts[l] = levelStarts[l - 1] + widths[l - 1];
+        }
+    }
+
+    /**
+     * Allocate the storage of every level.
+     *
+     * @param file is the file to map, or null for direct buffers.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private void allocate(Path file) throws IOException {
+        long total = levelStarts[levelStarts.length - 1] + widths[widths.length - 1];
+        int count = (int) ((total + digestsPerChunk - 1) / digestsPerChunk);
+        chunks = new ByteBuffer[count];
+        if (file != null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        for (int c = 0; c < count; c++) {
+            long digests = Math.min(digestsPerChunk, total - (long) c * digestsPerChunk);
+            int bytes = (int) (digests * digestLength);
+            if (channel == null) {
+                chunks[c] = ByteBuffer.allocateDirect(bytes);
+            } else {
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, (long) c * digestsPerChunk * digestLength,
+                        bytes);
+            }
+        }
+    }
+
+    /**
+     * Hash the leaves, pad them as the layout requires, then hash each level
+     * from the one below it, copying the last node of odd levels up unchanged.
+     *
+     * @param transactions is the transactions.
+     * @param count        is the number of transactions.
+     */
+    private void build(Iterable<Transaction> transactions, int count) {
+        int i = 0;
+        for (Transaction t : transactions) {
+            if (i == count) {
+                throw new IllegalArgumentException("more than " + count + " transactions");
+            }
+            write(0, i++, leafDigest(t.toString()));
+        }
+        if (i < count) {
+            throw new IllegalArgumentException("fewer than " + count + " transactions");
+        }
+        if (i < widths[0]) {
+            byte[] dummy = leafDigest("DUMMY");
+            while (i < widths[0]) {
+                write(0, i++, dummy);
+            }
+        }
+        byte[] left = new byte[digestLength];
+        byte[] right = new byte[digestLength];
+        for (int l = 1; l < widths.length; l++) {
+            int below = widths[l - 1];
+            for (int j = 0; j < widths[l]; j++) {
+                read(l - 1, 2 * j, left);
+                if (2 * j + 1 < below) {
+                    read(l - 1, 2 * j + 1, right);
+                    write(l, j, scheme.nodeDigest(function, left, right));
+                    innerNodes++;
+                } else {
+                    write(l, j, left);
+                }
+            }
+        }
+    }
+
+    /**
+     * return the hash code of the root, or null if the tree is empty.
+     *
+     * @return the hash code of the root, or null if the tree is empty.
+     */
+    public String rootHash() {
+        if (widths[0] == 0) {
+            return null;
+        }
+        return hex(widths.length - 1, 0);
+    }
+
+    /**
+     * return the height of the tree.
+     *
+     * @return the height of the tree.
+     */
+    public int height() {
+        return widths.length - 1;
+    }
+
+    /**
+     * return the number of inner nodes in the tree.
+     *
+     * @return the number of inner nodes in the tree.
+     */
+    public int innerNodes() {
+        return innerNodes;
+    }
+
+    /**
+     * return the number of leaves of the tree, dummy leaves included.
+     *
+     * @return the number of leaves of the tree.
+     */
+    public int leafCount() {
+        return widths[0];
+    }
+
+    /**
+     * return the way the nodes of the tree are hashed.
+     *
+     * @return the way the nodes of the tree are hashed.
+     */
+    public HashScheme scheme() {
+        return scheme;
+    }
+
+    /**
+     * return the identifier of the hash algorithm of the tree.
+     *
+     * @return the identifier of the hash algorithm of the tree.
+     */
+    public String algorithm() {
+        return function.id();
+    }
+
+    /**
+     * return the shape of the tree.
+     *
+     * @return the shape of the tree.
+     */
+    public TreeLayout layout() {
+        return layout;
+    }
+
+    /**
+     * return the number of bytes of storage outside the heap.
+     *
+     * @return the number of bytes of storage outside the heap.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : storage()) {
+            bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Extract the proof of the leaf at a position.
+     *
+     * @param leafIndex is the position of the leaf, from 0.
+     * @return the proof of the leaf.
+     */
+    public MerkleProof extractMerkleProof(int leafIndex) {
+        if (leafIndex < 0 || leafIndex >= widths[0]) {
+            throw new IndexOutOfBoundsException("no leaf " + leafIndex);
+        }
+        SinglyLinkedList<String> siblings = new SinglyLinkedList<>();
+        int position = leafIndex;
+        for (int l = 0; l < widths.length - 1; l++) {
+            int sibling = position ^ 1;
+            if (sibling < widths[l]) {
+                siblings.add(hex(l, sibling));
+            }
+            position >>= 1;
+        }
+        return new MerkleProof(scheme, function.id(), leafIndex, widths[0], siblings);
+    }
+
+    /**
+     * Find the leftmost leaf holding the hash of the transaction by scanning
+     * the leaves in place, then extract its proof.
+     *
+     * @param t is the transaction.
+     * @return the proof of the transaction, or null if it is not in the tree.
+     */
+    public MerkleProof extractMerkleProof(Transaction t) {
+        byte[] wanted = leafDigest(t.toString());
+        byte[] leaf = new byte[digestLength];
+        for (int i = 0; i < widths[0]; i++) {
+            read(0, i, leaf);
+            if (Arrays.equals(leaf, wanted)) {
+                return extractMerkleProof(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walk the tree in level order, visiting the hash code of each node.
+     * The queue of pending nodes is kept outside the heap as well, in chunks of
+     * at most CHUNK_BYTES, since it holds up to one node per leaf.
+     *
+     * @param visitor is the receiver of the hash codes.
+     */
+    public void breadthFirstTraversal(Visitor visitor) {
+        if (widths[0] == 0) {
+            return;
+        }
+        long capacity = widths[0];
+        int perChunk = CHUNK_BYTES / Long.BYTES;
+        ByteBuffer[] queue = new ByteBuffer[(int) ((capacity + perChunk - 1) / perChunk)];
+        for (int c = 0; c < queue.length; c++) {
+            long entries = Math.min(perChunk, capacity - (long) c * perChunk);
+            queue[c] = ByteBuffer.allocateDirect((int) (Long.BYTES * entries));
+        }
+        long head = 0;
+        long size = 1;
+        queue[0].putLong(0, node(widths.length - 1, 0));
+        while (size > 0) {
+            long node = queue[(int) (head / perChunk)].getLong(Long.BYTES * (int) (head % perChunk));
+            head = (head + 1) % capacity;
+            size--;
+            int level = (int) (node >>> 32);
+            int index = (int) node;
+            visitor.visit(hex(level, index));
+            if (level > 0) {
+                for (int child = 0; child < 2; child++) {
+                    long tail = (head + size) % capacity;
+                    queue[(int) (tail / perChunk)].putLong(Long.BYTES * (int) (tail % perChunk),
+                            resolve(level - 1, 2 * index + child));
+                    size++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walk the tree in level order.
+     *
+     * @return a list of the hash codes contained in the tree by walking the tree in
+     * a level-order.
+     */
+    public SinglyLinkedList<String> breadthFirstTraversal() {
+        SinglyLinkedList<String> list = new SinglyLinkedList<>();
+        breadthFirstTraversal(list::add);
+        return list;
+    }
+
+    /**
+     * Walk the tree depth first in a given order, visiting the hash code of
+     * each node. The recursion is as deep as the tree is high.
+     *
+     * @param order   is an enumeration representing the three possible
+     *                depth-first traversals.
+     * @param visitor is the receiver of the hash codes.
+     */
+    public void depthFirstTraversal(Order order, Visitor visitor) {
+        if (order == null) {
+            throw new RuntimeException();
+        }
+        if (widths[0] > 0) {
+            depthFirst(widths.length - 1, 0, order, visitor);
+        }
+    }
+
+    /**
+     * Walk the tree depth first in a given order.
+     *
+     * @param order is an enumeration representing the three possible depth-first
+     *              traversals.
+     * @return a list of the hash codes contained in the tree by walking the tree in
+     * a certain order.
+     */
+    public SinglyLinkedList<String> depthFirstTraversal(Order order) {
+        SinglyLinkedList<String> list = new SinglyLinkedList<>();
+        depthFirstTraversal(order, list::add);
+        return list;
+    }
+
+    /**
+     * Release the storage. Mapped files stay on disk.
+     *
+     * @throws IOException if the mapped file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        chunks = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Recursive method that walks the subtree of a node.
+     *
+     * @param level   is the level of the node.
+     * @param index   is the position of the node in its level.
+     * @param order   is the order of the traversal.
+     * @param visitor is the receiver of the hash codes.
+     */
+    private void depthFirst(int level, int index, Order order, Visitor visitor) {
+        if (level == 0) {
+            visitor.visit(hex(level, index));
+            return;
+        }
+        long left = resolve(level - 1, 2 * index);
+        long right = resolve(level - 1, 2 * index + 1);
+        if (order == Order.PREORDER) {
+            visitor.visit(hex(level, index));
+        }
+        depthFirst((int) (left >>> 32), (int) left, order, visitor);
+        if (order == Order.INORDER) {
+            visitor.visit(hex(level, index));
+        }
+        depthFirst((int) (right >>> 32), (int) right, order, visitor);
+        if (order == Order.POSTORDER) {
+            visitor.visit(hex(level, index));
+        }
+    }
+
+    /**
+     * Find the node that really sits at a position: a node copied up from an
+     * odd level is the same node as the one it was copied from.
+     *
+     * @param level is the level of the position.
+     * @param index is the index of the position in its level.
+     * @return the level and index of the node, packed in a long.
+     */
+    private long resolve(int level, int index) {
+        while (level > 0 && 2 * index + 1 >= widths[level - 1]) {
+            level--;
+            index = 2 * index;
+        }
+        return node(level, index);
+    }
+
+    /**
+     * Pack a level and an index.
+     *
+     * @param level is the level.
+     * @param index is the index in the level.
+     * @return the level and the index packed in a long.
+     */
+    private static long node(int level, int index) {
+        return (long) level << 32 | index;
+    }
+
+    /**
+     * Hash the data of a leaf.
+     *
+     * @param data is the data of the leaf.
+     * @return the raw digest of the leaf.
+     */
+    private byte[] leafDigest(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[1 + bytes.length];
+        System.arraycopy(bytes, 0, buffer, 1, bytes.length);
+        return scheme.leafDigest(function, buffer, 1, bytes.length);
+    }
+
+    /**
+     * Read the hash code of a node.
+     *
+     * @param level is the level of the node.
+     * @param index is the position of the node in its level.
+     * @return the hash code of the node.
+     */
+    private String hex(int level, int index) {
+        byte[] digest = new byte[digestLength];
+        read(level, index, digest);
+        return Utilities.toHex(digest);
+    }
+
+    /**
+     * Read the raw digest of a node.
+     *
+     * @param level is the level of the node.
+     * @param index is the position of the node in its level.
+     * @param dst   receives the digest.
+     */
+    private void read(int level, int index, byte[] dst) {
+        long n = levelStarts[level] + index;
+        storage()[(int) (n / digestsPerChunk)].get((int) (n % digestsPerChunk) * digestLength, dst);
+    }
+
+    /**
+     * Write the raw digest of a node.
+     *
+     * @param level  is the level of the node.
+     * @param index  is the position of the node in its level.
+     * @param digest is the digest.
+     */
+    private void write(int level, int index, byte[] digest) {
+        long n = levelStarts[level] + index;
+        storage()[(int) (n / digestsPerChunk)].put((int) (n % digestsPerChunk) * digestLength, digest);
+    }
+
+    /**
+     * Get the storage, checking that the tree is still open.
+     *
+     * @return the chunks of the storage.
+     */
+    private ByteBuffer[] storage() {
+        ByteBuffer[] storage = chunks;
+        if (storage == null) {
+            throw new IllegalStateException("closed");
+        }
+        return storage;
+    }
+}
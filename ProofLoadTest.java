@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the {@link ProofServer} over localhost.
+ * It builds a synthetic chain, starts a server on a free port and runs many
+ * concurrent clients that ask for the proofs of random transactions. Most
+ * requests go to a few hot blocks, as they would after a popular block is
+ * announced, so the coalescing of the server is exercised. Every proof is
+ * verified by the client against the root hash of the block header. The
+ * report gives the throughput, the latency percentiles and how many tree
+ * builds and proof passes the server needed.
+ *
+ * <pre>
+ * java ProofLoadTest [clients] [requests per client] [blocks] [transactions per block]
+ * </pre>
+ */
+public class ProofLoadTest {
+    /**
+     * The number of hot blocks.
+     */
+    private static final int HOT_BLOCKS = 4;
+    /**
+     * The share of the requests that go to the hot blocks.
+     */
+    private static final double HOT_SHARE = 0.8;
+
+    /**
+     * Runs the load test.
+     *
+     * @param args optionally, the number of clients, the number of requests of
+     *             each client, the number of blocks and the number of
+     *             transactions per block.
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int perClient = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int blockCount = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int perBlock = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+
+        PriorityLine<Transaction> queue = new PriorityLine<>();
+        for (int i = 0; i < blockCount * perBlock; i++) {
+            queue.enqueue(new Transaction("sender" + i, "receiver" + i, 10000 + i, 1));
+        }
+        Blockchain chain = new Blockchain(queue, perBlock, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                TreeLayout.PROMOTED);
+        Block[] blocks = new Block[chain.size()];
+        Transaction[][] transactions = new Transaction[chain.size()][];
+        int b = 0;
+        for (Block block : chain) {
+            blocks[b] = block;
+            ArrayList<Transaction> list = new ArrayList<>();
+            for (Transaction t : block) {
+                list.add(t);
+            }
+            transactions[b++] = list.toArray(new Transaction[0]);
+        }
+
+        ProofServer server = new ProofServer(chain);
+        server.start(0);
+        String base = "http://127.0.0.1:" + server.port();
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        System.out.printf("%d blocks of %d transactions, %d clients x %d requests on %s%n", blocks.length,
+                perBlock, clients, perClient, base);
+
+        long[] latencies = new long[clients * perClient];
+        AtomicLong failures = new AtomicLong();
+        ExecutorService executor = ProofServer.newThreadPerTaskExecutor();
+        long start = System.nanoTime();
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(client);
+                    for (int r = 0; r < perClient; r++) {
+                        int blockIndex = random.nextDouble() < HOT_SHARE
+                                ? random.nextInt(Math.min(HOT_BLOCKS, blocks.length))
+                                : random.nextInt(blocks.length);
+                        Transaction[] candidates = transactions[blockIndex];
+                        Transaction t = candidates[random.nextInt(candidates.length)];
+                        String uri = base + "/proof?block=" + blockIndex + "&tx="
+                                + URLEncoder.encode(t.toString(), StandardCharsets.UTF_8);
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(uri)).build(),
+                                    HttpResponse.BodyHandlers.ofString());
+                            if (response.statusCode() != 200 || !Utilities.verifyTransaction(t,
+                                    ProofServer.decodeProof(response.body()), blocks[blockIndex], chain.layout())) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            failures.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        latencies[client * perClient + r] = System.nanoTime() - sent;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            server.stop();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests in %.2f s: %.0f proofs/s, %d failures%n", latencies.length, elapsed / 1e9,
+                latencies.length * 1e9 / elapsed, failures.get());
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", percentile(latencies, 0.50) / 1e6,
+                percentile(latencies, 0.99) / 1e6, latencies[latencies.length - 1] / 1e6);
+        System.out.printf("server: %d requests, %d proof passes, %d tree builds%n", server.requests(),
+                server.passes(), server.treeBuilds());
+    }
+
+    /**
+     * Read a percentile of sorted values.
+     *
+     * @param sorted   is the values, in increasing order.
+     * @param fraction is the percentile, between 0 and 1.
+     * @return the value at the percentile.
+     */
+    static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
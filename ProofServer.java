@@ -0,0 +1,701 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An embedded HTTP server that serves inclusion proofs for the blocks of a
+ * blockchain to light clients, on localhost.
+ * Every request runs on its own thread, a virtual thread when the JDK has
+ * them. Concurrent requests for the same block are coalesced: a single pass
+ * at a time runs for each block, and the requests that arrive while it runs
+ * queue up for the next one. A pass gets the Merkle Tree of the block, from a
+ * small cache or by building it, then extracts all the queued proofs at once.
+ *
+ * <pre>
+ * GET  /proof?block=K&amp;tx=T    the proof of transaction T in block K
+ * GET  /verify?block=K&amp;tx=T   true if block K contains transaction T
+ * POST /proofs?block=K         the proofs of the transactions of the body,
+ *                              one per line, separated by blank lines; a
+ *                              body over {@link #MAX_BODY_BYTES} bytes is
+ *                              answered with 413
+ * GET  /nodes?block=K&amp;level=L&amp;indices=I,J
+ *                              the leaf count of the tree of block K and the
+ *                              hash codes of nodes I, J of level L, for
+ *                              {@link MerkleDiff}
+ * GET  /stats                  the request, batch and tree build counters
+ * </pre>
+ * A transaction is written as its string representation. A proof is written
+ * as one "name value" line per field and one "sibling" line per hash code;
+ * {@link #decodeProof(String)} reads it back.
+ */
+public class ProofServer {
+    /**
+     * The largest body of a POST /proofs request, in bytes.
+     */
+    public static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The proofs queued for one block until the next pass over it.
+     */
+    private static class Batch {
+        /**
+         * The transactions whose proofs are requested.
+         */
+        private final ArrayList<Transaction> transactions = new ArrayList<>();
+        /**
+         * The pending result of each request, in the same order.
+         */
+        private final ArrayList<CompletableFuture<MerkleProof>> results = new ArrayList<>();
+        /**
+         * Whether the batch takes no more requests.
+         */
+        private boolean closed;
+    }
+
+    /**
+     * The blocks of the chain, in chain order.
+     */
+    private final Block[] blocks;
+    /**
+     * The hash scheme of the chain.
+     */
+    private final HashScheme scheme;
+    /**
+     * The hash function of the chain.
+     */
+    private final HashFunction function;
+    /**
+     * The shape of the Merkle Trees of the chain.
+     */
+    private final TreeLayout layout;
+    /**
+     * The largest number of Merkle Trees kept in the cache.
+     */
+    private final int cacheSize;
+    /**
+     * The most recently used Merkle Trees, by block index.
+     */
+    private final LinkedHashMap<Integer, MerkleTree> trees;
+    /**
+     * The lock of each block, held while a pass over the block runs.
+     */
+    private final ReentrantLock[] passLocks;
+    /**
+     * The open batch of each block.
+     */
+    private final ConcurrentHashMap<Integer, Batch> batches = new ConcurrentHashMap<>();
+    /**
+     * The number of proofs requested.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    /**
+     * The number of batched proof passes.
+     */
+    private final AtomicLong passes = new AtomicLong();
+    /**
+     * The number of Merkle Trees built.
+     */
+    private final AtomicLong treeBuilds = new AtomicLong();
+    /**
+     * The HTTP server, while running.
+     */
+    private HttpServer server;
+    /**
+     * The executor of the requests, while running.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructs a server for the blocks of a chain that keeps the trees of the
+     * 64 most recently used blocks.
+     *
+     * @param chain is the blockchain.
+     */
+    public ProofServer(Blockchain chain) {
+        this(chain, 64);
+    }
+
+    /**
+     * Constructs a server for the blocks of a chain.
+     *
+     * @param chain     is the blockchain.
+     * @param cacheSize is the largest number of Merkle Trees kept in the cache.
+     */
+    public ProofServer(Blockchain chain, int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.blocks = new Block[chain.size()];
+        int i = 0;
+        for (Block block : chain) {
+            blocks[i++] = block;
+        }
+        this.passLocks = new ReentrantLock[blocks.length];
+        for (i = 0; i < blocks.length; i++) {
+            passLocks[i] = new ReentrantLock();
+        }
+        this.scheme = chain.scheme();
+        this.function = chain.function();
+        this.layout = chain.layout();
+        this.cacheSize = cacheSize;
+        this.trees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MerkleTree> eldest) {
+                return size() > ProofServer.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Start serving on the loopback interface.
+     *
+     * @param port is the port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be bound.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("already started");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        executor = newThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/proof", this::handleProof);
+        server.createContext("/verify", this::handleVerify);
+        server.createContext("/proofs", this::handleProofs);
+        server.createContext("/nodes", this::handleNodes);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+    }
+
+    /**
+     * Stop serving, waiting at most a second for the requests in progress.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * return the port the server listens on.
+     *
+     * @return the port the server listens on.
+     */
+    public synchronized int port() {
+        if (server == null) {
+            throw new IllegalStateException("not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * return the number of proofs requested so far.
+     *
+     * @return the number of proofs requested so far.
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * return the number of batched proof passes so far.
+     *
+     * @return the number of batched proof passes so far.
+     */
+    public long passes() {
+        return passes.get();
+    }
+
+    /**
+     * return the number of Merkle Trees built so far.
+     *
+     * @return the number of Merkle Trees built so far.
+     */
+    public long treeBuilds() {
+        return treeBuilds.get();
+    }
+
+    /**
+     * Get the proof of a transaction in a block, joining the open batch of the
+     * block or opening a new one.
+     * The thread that opens a batch waits for the pass in progress over the
+     * block, if any, then closes the batch and serves every request that joined
+     * it meanwhile.
+     *
+     * @param blockIndex is the position of the block, from 0.
+     * @param t          is the transaction.
+     * @return the proof of the transaction, or null if the block does not
+     * contain it.
+     */
+    public MerkleProof proof(int blockIndex, Transaction t) {
+        return proofs(blockIndex, new Transaction[] {t})[0];
+    }
+
+    /**
+     * Get the proofs of transactions in a block. All of them join the open
+     * batch of the block at once before waiting, so they are served by a
+     * single pass, together with the requests of other clients.
+     *
+     * @param blockIndex   is the position of the block, from 0.
+     * @param transactions is the transactions.
+     * @return the proof of each transaction, or null where the block does not
+     * contain it.
+     */
+    public MerkleProof[] proofs(int blockIndex, Transaction[] transactions) {
+        if (blockIndex < 0 || blockIndex >= blocks.length) {
+            throw new IndexOutOfBoundsException("no block " + blockIndex);
+        }
+        MerkleProof[] proofs = new MerkleProof[transactions.length];
+        if (transactions.length == 0) {
+            return proofs;
+        }
+        requests.addAndGet(transactions.length);
+        ArrayList<CompletableFuture<MerkleProof>> results = new ArrayList<>(transactions.length);
+        for (int i = 0; i < transactions.length; i++) {
+            results.add(new CompletableFuture<>());
+        }
+        Batch batch;
+        boolean leader;
+        while (true) {
+            batch = batches.computeIfAbsent(blockIndex, k -> new Batch());
+            synchronized (batch) {
+                if (!batch.closed) {
+                    leader = batch.transactions.isEmpty();
+                    batch.transactions.addAll(Arrays.asList(transactions));
+                    batch.results.addAll(results);
+                    break;
+                }
+            }
+        }
+        if (leader) {
+            runBatch(blockIndex, batch);
+        }
+        try {
+            for (int i = 0; i < proofs.length; i++) {
+                proofs[i] = results.get(i).get();
+            }
+            return proofs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Check whether a block contains a transaction by verifying its proof
+     * against the root hash stored in the block.
+     *
+     * @param blockIndex is the position of the block, from 0.
+     * @param t          is the transaction.
+     * @return true if the block contains the transaction.
+     */
+    public boolean verify(int blockIndex, Transaction t) {
+        MerkleProof proof = proof(blockIndex, t);
+        return Utilities.verifyTransaction(t, proof, blocks[blockIndex], layout);
+    }
+
+    /**
+     * Get the hash codes of nodes of the Merkle Tree of a block.
+     *
+     * @param blockIndex is the position of the block, from 0.
+     * @param level      is the level of the nodes, from 0 for the leaves.
+     * @param indices    is the positions of the nodes in their level.
+     * @return the hash codes of the nodes.
+     */
+    public String[] nodeHashes(int blockIndex, int level, int[] indices) {
+        return MerkleDiff.local(lockedTree(blockIndex)).nodeHashes(level, indices);
+    }
+
+    /**
+     * return the number of leaves of the Merkle Tree of a block.
+     *
+     * @param blockIndex is the position of the block, from 0.
+     * @return the number of leaves of the Merkle Tree of the block.
+     */
+    public int leafCount(int blockIndex) {
+        return lockedTree(blockIndex).leafCount();
+    }
+
+    /**
+     * Get the Merkle Tree of a block under the lock of the block.
+     *
+     * @param blockIndex is the position of the block, from 0.
+     * @return the Merkle Tree of the block.
+     */
+    private MerkleTree lockedTree(int blockIndex) {
+        if (blockIndex < 0 || blockIndex >= blocks.length) {
+            throw new IndexOutOfBoundsException("no block " + blockIndex);
+        }
+        ReentrantLock lock = passLocks[blockIndex];
+        lock.lock();
+        try {
+            return tree(blockIndex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Serve the queued requests of a batch.
+     *
+     * @param blockIndex is the position of the block of the batch.
+     * @param batch      is the batch.
+     */
+    private void runBatch(int blockIndex, Batch batch) {
+        ReentrantLock lock = passLocks[blockIndex];
+        lock.lock();
+        try {
+            MerkleTree tree = null;
+            RuntimeException failure = null;
+            try {
+                tree = tree(blockIndex);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            batches.remove(blockIndex, batch);
+            Transaction[] transactions;
+            synchronized (batch) {
+                batch.closed = true;
+                transactions = batch.transactions.toArray(new Transaction[0]);
+            }
+            passes.incrementAndGet();
+            if (failure == null) {
+                try {
+                    MerkleProof[] proofs = tree.extractMerkleProofs(transactions);
+                    for (int i = 0; i < proofs.length; i++) {
+                        batch.results.get(i).complete(proofs[i]);
+                    }
+                    return;
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            for (CompletableFuture<MerkleProof> result : batch.results) {
+                result.completeExceptionally(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the Merkle Tree of a block from the cache, building it on a miss.
+     * Only the holder of the lock of the block calls it, so a tree is never
+     * built twice at once.
+     *
+     * @param blockIndex is the position of the block.
+     * @return the Merkle Tree of the block.
+     */
+    private MerkleTree tree(int blockIndex) {
+        synchronized (trees) {
+            MerkleTree tree = trees.get(blockIndex);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        MerkleTree tree = new MerkleTree(blocks[blockIndex], scheme, function, layout);
+        treeBuilds.incrementAndGet();
+        synchronized (trees) {
+            trees.put(blockIndex, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Handle GET /proof.
+     *
+     * @param exchange is the HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleProof(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = query(exchange);
+            int blockIndex = blockIndex(query);
+            MerkleProof proof = proof(blockIndex, Utilities.parseTransaction(required(query, "tx")));
+            if (proof == null) {
+                respond(exchange, 404, "not found\n");
+            } else {
+                respond(exchange, 200, encodeProof(proof, blocks[blockIndex].getRootHash()));
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "internal error\n");
+        }
+    }
+
+    /**
+     * Handle GET /verify.
+     *
+     * @param exchange is the HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleVerify(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = query(exchange);
+            boolean verified = verify(blockIndex(query), Utilities.parseTransaction(required(query, "tx")));
+            respond(exchange, 200, verified + "\n");
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "internal error\n");
+        }
+    }
+
+    /**
+     * Handle POST /proofs.
+     * The transactions of the body all join the batch of the block before the
+     * handler waits for any of them, so they are served by one pass,
+     * coalesced with the requests of other clients for the same block.
+     *
+     * @param exchange is the HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleProofs(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "POST only\n");
+                return;
+            }
+            int blockIndex = blockIndex(query(exchange));
+            byte[] bytes;
+            try (InputStream in = exchange.getRequestBody()) {
+                bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            }
+            if (bytes.length > MAX_BODY_BYTES) {
+                respond(exchange, 413, "body over " + MAX_BODY_BYTES + " bytes\n");
+                return;
+            }
+            String body = new String(bytes, StandardCharsets.UTF_8);
+            ArrayList<Transaction> transactions = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                if (!line.isEmpty()) {
+                    transactions.add(Utilities.parseTransaction(line));
+                }
+            }
+            MerkleProof[] proofs = proofs(blockIndex, transactions.toArray(new Transaction[0]));
+            StringBuilder sb = new StringBuilder();
+            for (MerkleProof proof : proofs) {
+                sb.append(proof == null ? "none\n" : encodeProof(proof, blocks[blockIndex].getRootHash()));
+                sb.append('\n');
+            }
+            respond(exchange, 200, sb.toString());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "internal error\n");
+        }
+    }
+
+    /**
+     * Handle GET /nodes.
+     *
+     * @param exchange is the HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleNodes(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = query(exchange);
+            int blockIndex = blockIndex(query);
+            StringBuilder sb = new StringBuilder();
+            sb.append("leafCount ").append(leafCount(blockIndex)).append('\n');
+            String indices = query.get("indices");
+            if (indices != null && !indices.isEmpty()) {
+                String[] parts = indices.split(",");
+                int[] positions = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    positions[i] = Integer.parseInt(parts[i]);
+                }
+                for (String hash : nodeHashes(blockIndex, Integer.parseInt(required(query, "level")), positions)) {
+                    sb.append("node ").append(hash).append('\n');
+                }
+            }
+            respond(exchange, 200, sb.toString());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "internal error\n");
+        }
+    }
+
+    /**
+     * Handle GET /stats.
+     *
+     * @param exchange is the HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, String.format("requests %d%npasses %d%ntreeBuilds %d%n", requests(), passes(),
+                treeBuilds()));
+    }
+
+    /**
+     * Decode the parameters of the query string of a request.
+     *
+     * @param exchange is the HTTP exchange.
+     * @return the parameters by name.
+     */
+    private static Map<String, String> query(HttpExchange exchange) {
+        HashMap<String, String> parameters = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Get a parameter that must be present.
+     *
+     * @param query is the parameters by name.
+     * @param name  is the name of the parameter.
+     * @return the value of the parameter.
+     */
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing parameter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Get the block parameter of a request.
+     *
+     * @param query is the parameters by name.
+     * @return the position of the block.
+     */
+    private int blockIndex(Map<String, String> query) {
+        int blockIndex = Integer.parseInt(required(query, "block"));
+        if (blockIndex < 0 || blockIndex >= blocks.length) {
+            throw new IndexOutOfBoundsException("no block " + blockIndex);
+        }
+        return blockIndex;
+    }
+
+    /**
+     * Send a plain text response and close the exchange.
+     *
+     * @param exchange is the HTTP exchange.
+     * @param status   is the HTTP status code.
+     * @param body     is the body of the response.
+     * @throws IOException if the response cannot be sent.
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Encode a proof as text.
+     *
+     * @param proof     is the proof.
+     * @param blockRoot is the root hash of the block of the proof.
+     * @return the text of the proof.
+     */
+    static String encodeProof(MerkleProof proof, String blockRoot) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("scheme ").append(proof.scheme().name()).append('\n');
+        sb.append("algorithm ").append(proof.algorithm()).append('\n');
+        sb.append("leafIndex ").append(proof.leafIndex()).append('\n');
+        sb.append("leafCount ").append(proof.leafCount()).append('\n');
+        sb.append("blockRoot ").append(blockRoot).append('\n');
+        for (String sibling : proof.siblings()) {
+            sb.append("sibling ").append(sibling).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decode a proof written by the server. The block root hash of the text is
+     * ignored: clients verify against the root hash of the block header they
+     * trust.
+     *
+     * @param text is the text of the proof.
+     * @return the proof.
+     */
+    public static MerkleProof decodeProof(String text) {
+        HashScheme scheme = null;
+        String algorithm = null;
+        int leafIndex = -1;
+        int leafCount = -1;
+        SinglyLinkedList<String> siblings = new SinglyLinkedList<>();
+        for (String line : text.split("\n")) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            String value = line.substring(space + 1);
+            switch (line.substring(0, space)) {
+                case "scheme":
+                    scheme = HashScheme.valueOf(value);
+                    break;
+                case "algorithm":
+                    algorithm = value;
+                    break;
+                case "leafIndex":
+                    leafIndex = Integer.parseInt(value);
+                    break;
+                case "leafCount":
+                    leafCount = Integer.parseInt(value);
+                    break;
+                case "sibling":
+                    siblings.add(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (scheme == null || algorithm == null || leafIndex < 0 || leafCount < 0) {
+            throw new IllegalArgumentException("not a proof");
+        }
+        return new MerkleProof(scheme, algorithm, leafIndex, leafCount, siblings);
+    }
+
+    /**
+     * Create an executor that runs every task on a new virtual thread, or on a
+     * cached pool of platform threads when the JDK has no virtual threads.
+     *
+     * @return the executor.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Simulates two nodes that disagree on the contents of some blocks. Node B
+ * serves its chain with a ProofServer on localhost; node A finds the
+ * transactions on which each block differs with MerkleDiff, fetching the hash
+ * codes of node B over HTTP one level at a time. Block k of node B has a
+ * different amount in up to 4^k - 1 random transactions (none for block 0). The
+ * demo checks the positions found against the ones changed, and compares the
+ * hash codes fetched with the hash codes of a full breadth-first dump.
+ *
+ * <pre>
+ * java ReconciliationDemo [transactions per block]
+ * </pre>
+ */
+public class ReconciliationDemo {
+    /**
+     * Runs the demo.
+     *
+     * @param args optionally, the number of transactions per block.
+     */
+    public static void main(String[] args) throws IOException {
+        int perBlock = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int blocks = 5;
+        Random random = new Random(42);
+        Blockchain nodeA = new Blockchain(new PriorityLine<>(), 1, HashScheme.DOMAIN_SEPARATED,
+                HashFunctions.SHA_256, TreeLayout.PROMOTED);
+        Blockchain nodeB = new Blockchain(new PriorityLine<>(), 1, HashScheme.DOMAIN_SEPARATED,
+                HashFunctions.SHA_256, TreeLayout.PROMOTED);
+        boolean[][] changed = new boolean[blocks][perBlock];
+        for (int b = 0; b < blocks; b++) {
+            int differences = (1 << 2 * b) - 1;
+            for (int d = 0; d < differences; d++) {
+                changed[b][random.nextInt(perBlock)] = true;
+            }
+            Block blockA = new Block();
+            Block blockB = new Block();
+            for (int i = 0; i < perBlock; i++) {
+                String sender = "sender" + random.nextInt(1000);
+                String receiver = "receiver" + random.nextInt(1000);
+                int amount = 10000 + random.nextInt(90000);
+                blockA.addTransaction(new Transaction(sender, receiver, amount, 1));
+                blockB.addTransaction(new Transaction(sender, receiver, changed[b][i] ? amount + 1 : amount, 1));
+            }
+            nodeA.addBlock(nodeA.tip(), blockA);
+            nodeB.addBlock(nodeB.tip(), blockB);
+        }
+
+        ProofServer server = new ProofServer(nodeB);
+        server.start(0);
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try {
+            System.out.printf("Blocks of %d transactions; a full dump is %d hash codes%n", perBlock,
+                    new MerkleTree(nodeA.get(0), nodeA.scheme(), nodeA.function(), nodeA.layout())
+                            .breadthFirstTraversal().size());
+            System.out.printf("%8s%10s%10s%16s%12s%n", "block", "changed", "found", "hashes fetched", "requests");
+            for (int b = 0; b < nodeA.size(); b++) {
+                Block block = nodeA.get(b);
+                MerkleTree local = new MerkleTree(block, nodeA.scheme(), nodeA.function(), nodeA.layout());
+                RemoteFetcher remote = new RemoteFetcher(http, server.port(), b);
+                int[] found = MerkleDiff.diff(MerkleDiff.local(local), remote);
+                int[] expected = changedPositions(changed[b]);
+                if (!Arrays.equals(found, expected)) {
+                    throw new IllegalStateException("block " + b + ": found " + Arrays.toString(found));
+                }
+                System.out.printf("%8d%10d%10d%16d%12d%n", b, expected.length, found.length, remote.hashes,
+                        remote.requests);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * List the positions of the changed transactions of a block.
+     *
+     * @param changed tells for each position whether it was changed.
+     * @return the changed positions, in increasing order.
+     */
+    private static int[] changedPositions(boolean[] changed) {
+        int[] positions = new int[changed.length];
+        int count = 0;
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i]) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Fetches the hash codes of a block of the other node through GET /nodes.
+     */
+    private static class RemoteFetcher implements MerkleDiff.NodeFetcher {
+        /**
+         * The HTTP client.
+         */
+        private final HttpClient http;
+        /**
+         * The address of the other node.
+         */
+        private final String base;
+        /**
+         * The number of requests sent.
+         */
+        private int requests;
+        /**
+         * The number of hash codes received.
+         */
+        private int hashes;
+
+        /**
+         * Constructor for the RemoteFetcher class.
+         *
+         * @param http       is the HTTP client.
+         * @param port       is the port of the other node on localhost.
+         * @param blockIndex is the position of the block.
+         */
+        private RemoteFetcher(HttpClient http, int port, int blockIndex) {
+            this.http = http;
+            this.base = "http://127.0.0.1:" + port + "/nodes?block=" + blockIndex;
+        }
+
+        /**
+         * Returns the number of leaves of the tree of the other node.
+         *
+         * @return the number of leaves of the tree.
+         */
+        public int leafCount() {
+            return Integer.parseInt(get(base)[0].substring("leafCount ".length()));
+        }
+
+        /**
+         * Returns the hash codes of nodes of one level of the tree of the other
+         * node.
+         *
+         * @param level   is the level of the nodes.
+         * @param indices is the positions of the nodes.
+         * @return the hash codes of the nodes.
+         */
+        public String[] nodeHashes(int level, int[] indices) {
+            StringBuilder uri = new StringBuilder(base).append("&level=").append(level).append("&indices=");
+            for (int i = 0; i < indices.length; i++) {
+                uri.append(i == 0 ? "" : ",").append(indices[i]);
+            }
+            String[] lines = get(uri.toString());
+            String[] result = new String[indices.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = lines[i + 1].substring("node ".length());
+            }
+            hashes += result.length;
+            return result;
+        }
+
+        /**
+         * Send a request and split the response into lines.
+         *
+         * @param uri is the URI of the request.
+         * @return the lines of the response.
+         */
+        private String[] get(String uri) {
+            try {
+                requests++;
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(uri)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException(response.body());
+                }
+                return response.body().split("\n");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
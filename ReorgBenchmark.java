@@ -0,0 +1,108 @@
+import java.util.Random;
+
+/**
+ * Measures chain reorganizations. A chain of blocks is built with a state and
+ * a mempool attached, then a competing branch of k blocks is added from the
+ * block k below the tip; its last block gives it more cumulative fees than
+ * the chain, so the chain switches to it through the undo records. This is
+ * compared with the only way there was before: putting every transaction of
+ * the new chain back into a priority queue, building a new chain from it and
+ * replaying the state. The benchmark also checks that after the
+ * reorganization the chain root hash, the balances and the mempool are those
+ * of the new branch.
+ *
+ * <pre>
+ * java ReorgBenchmark [blocks] [transactions per block]
+ * </pre>
+ */
+public class ReorgBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of blocks and the number of
+     *             transactions per block.
+     */
+    public static void main(String[] args) {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int perBlock = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        System.out.printf("Chain of %d blocks of %d transactions%n", blocks, perBlock);
+        System.out.printf("%8s%14s%14s%n", "depth", "reorg ms", "rebuild ms");
+        for (int depth = 1; depth <= blocks / 2; depth *= 4) {
+            Random random = new Random(42);
+            PriorityLine<Transaction> queue = new PriorityLine<>();
+            for (int i = 0; i < blocks * perBlock; i++) {
+                queue.enqueue(new Transaction("sender" + random.nextInt(1000), "receiver" + random.nextInt(1000),
+                        10000 + random.nextInt(90000), 1));
+            }
+            Blockchain chain = new Blockchain(queue, perBlock, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                    TreeLayout.PROMOTED);
+            StateEngine state = new StateEngine();
+            chain.attach(state);
+            Mempool mempool = new Mempool();
+            chain.setMempool(mempool);
+
+            int fork = chain.size() - depth;
+            Block[] branch = new Block[depth];
+            for (int b = 0; b < depth; b++) {
+                branch[b] = new Block();
+                int count = b == depth - 1 ? perBlock + 1 : perBlock;
+                for (int i = 0; i < count; i++) {
+                    branch[b].addTransaction(new Transaction("branch" + random.nextInt(1000),
+                            "receiver" + random.nextInt(1000), 10000 + random.nextInt(90000), 1));
+                }
+            }
+
+            long start = System.nanoTime();
+            Block parent = fork == 0 ? null : chain.get(fork - 1);
+            for (Block block : branch) {
+                chain.addBlock(parent, block);
+                parent = block;
+            }
+            double reorgMillis = (System.nanoTime() - start) / 1e6;
+            if (chain.tip() != branch[depth - 1] || chain.reorganizedBlocks() != depth
+                    || mempool.size() != depth * perBlock) {
+                throw new IllegalStateException("the chain did not switch to the branch");
+            }
+
+            start = System.nanoTime();
+            PriorityLine<Transaction> all = new PriorityLine<>();
+            for (Block block : chain) {
+                for (Transaction t : block) {
+                    all.enqueue(t);
+                }
+            }
+            Blockchain rebuilt = new Blockchain(all, perBlock, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                    TreeLayout.PROMOTED);
+            StateEngine replayed = new StateEngine();
+            replayed.replay(rebuilt);
+            double rebuildMillis = (System.nanoTime() - start) / 1e6;
+
+            check(chain, state);
+            System.out.printf("%8d%14.2f%14.2f%n", depth, reorgMillis, rebuildMillis);
+        }
+    }
+
+    /**
+     * Check that the chain and the attached state are those of a chain built
+     * directly from the same blocks.
+     *
+     * @param chain is the reorganized chain.
+     * @param state is the state attached to it.
+     */
+    private static void check(Blockchain chain, StateEngine state) {
+        MerkleMountainRange roots = new MerkleMountainRange(chain.scheme(), chain.function());
+        StateEngine replayed = new StateEngine();
+        for (Block block : chain) {
+            roots.append(block.getRootHash());
+            replayed.apply(block);
+        }
+        if (!roots.rootHash().equals(chain.rootHash())) {
+            throw new IllegalStateException("the chain root hash differs");
+        }
+        for (int id = 0; id < state.accounts(); id++) {
+            if (state.balanceOf(id) != replayed.balanceOf(state.accountName(id))) {
+                throw new IllegalStateException("the balance of " + state.accountName(id) + " differs");
+            }
+        }
+    }
+}
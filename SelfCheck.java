@@ -0,0 +1,1153 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs deterministic checks of the components of the project: every check
+ * builds its input from fixed seeds or known vectors, compares the result with
+ * the expected one and throws an IllegalStateException on the first mismatch.
+ * The exit status is 1 if a check fails.
+ *
+ * <pre>
+ * java SelfCheck
+ * </pre>
+ */
+public class SelfCheck {
+    /**
+     * A check.
+     */
+    private interface Check {
+        /**
+         * Runs the check.
+         *
+         * @throws Exception if the check cannot run.
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs every check.
+     *
+     * @param args is ignored.
+     */
+    public static void main(String[] args) {
+        boolean failed = false;
+        String[] names = {"state", "audit", "blake2s", "proofs", "snapshot", "multiproof", "codec", "offheap",
+            "snapshotpause", "reorg", "externalsort", "mmr", "merklediff", "fees"};
+        Check[] checks = {SelfCheck::state, SelfCheck::audit, SelfCheck::blake2s, SelfCheck::proofs,
+            SelfCheck::snapshot, SelfCheck::multiproof, SelfCheck::codec, SelfCheck::offHeap,
+            SelfCheck::snapshotPause, SelfCheck::reorg, SelfCheck::externalSort, SelfCheck::mmr,
+            SelfCheck::merkleDiff, SelfCheck::fees};
+        for (int i = 0; i < checks.length; i++) {
+            try {
+                checks[i].run();
+                System.out.println("ok      " + names[i]);
+            } catch (Exception | AssertionError e) {
+                System.out.println("FAILED  " + names[i] + ": " + e);
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check that a block applied in parallel chunks gives the same balances
+     * and deltas as applied serially, including with a hot account, and that
+     * reverting the delta restores the balances.
+     */
+    private static void state() {
+        for (double hot : new double[] {0, 0.01, 0.5}) {
+            Random random = new Random(7);
+            Block block = new Block();
+            for (int i = 0; i < 20000; i++) {
+                String sender = random.nextDouble() < hot ? "hot" : "account" + random.nextInt(30000);
+                block.addTransaction(new Transaction(sender, "account" + random.nextInt(30000),
+                        1000 + random.nextInt(5000), 1 + random.nextInt(9)));
+            }
+            StateEngine serial = new StateEngine(1, StateEngine.PARALLEL_THRESHOLD);
+            StateEngine parallel = new StateEngine(4, 0);
+            IntLongMap serialDelta = serial.apply(block);
+            IntLongMap parallelDelta = parallel.apply(block);
+            check(serialDelta.size() == parallelDelta.size(), "the deltas differ in size");
+            serialDelta.forEach((id, change) -> check(parallelDelta.get(id, change + 1) == change,
+                    "the delta of " + serial.accountName(id) + " differs"));
+            for (int id = 0; id < serial.accounts(); id++) {
+                check(serial.balanceOf(id) == parallel.balanceOf(serial.accountName(id)),
+                        "the balance of " + serial.accountName(id) + " differs");
+            }
+            parallel.revert(parallelDelta);
+            for (int id = 0; id < parallel.accounts(); id++) {
+                check(parallel.balanceOf(id) == 0, "the revert left a balance");
+            }
+        }
+        IntLongMap map = new IntLongMap();
+        for (int key = 0; key < 12; key++) {
+            map.put(key, key);
+        }
+        map.put(5, 7);
+        check(map.size() == 12 && map.get(5, 0) == 7, "replacing a value changed the map");
+    }
+
+    /**
+     * Check that an audit uses the hash scheme, function and layout of the
+     * chain, finds exactly the tampered block, reports progress in order, runs
+     * without a listener, and throws the exception of a failing listener
+     * instead of dropping it, audit after audit.
+     */
+    private static void audit() {
+        Blockchain chain = new Blockchain(transactions(11, 3000), 100, HashScheme.DOMAIN_SEPARATED,
+                HashFunctions.BLAKE2S_256, TreeLayout.PROMOTED);
+        ChainAuditor.Result clean = new ChainAuditor(4, 8, 1, null).audit(chain);
+        check(clean.audited() == chain.size() && clean.mismatches() == 0, "a sealed chain failed its audit");
+
+        chain.get(3).setRootHash("0");
+        long[] last = {0, 0, -1, 0};
+        ChainAuditor.Result tampered = new ChainAuditor(4, 8, 1, new ChainAuditor.Listener() {
+            public void mismatch(int blockIndex, Block block, String computedRoot) {
+                last[2] = blockIndex;
+            }
+
+            public void progress(long audited, long mismatches, long transactions, long elapsedNanos) {
+                if (audited != last[0] + 1 || transactions <= last[1]) {
+                    last[3]++;
+                }
+                last[0] = audited;
+                last[1] = transactions;
+            }
+        }).audit(chain);
+        check(tampered.mismatches() == 1 && last[2] == 3, "the tampered block was not found once");
+        check(last[0] == chain.size() && last[3] == 0, "the progress went backwards");
+
+        IllegalStateException thrown = new IllegalStateException("listener failure");
+        ChainAuditor failing = new ChainAuditor(2, 4, 1, new ChainAuditor.Listener() {
+            public void mismatch(int blockIndex, Block block, String computedRoot) {
+                throw thrown;
+            }
+
+            public void progress(long audited, long mismatches, long transactions, long elapsedNanos) {
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            try {
+                failing.audit(chain);
+                throw new IllegalStateException("the listener failure was swallowed");
+            } catch (IllegalStateException e) {
+                check(e == thrown, "the audit threw " + e);
+            }
+        }
+    }
+
+    /**
+     * Check BLAKE2s-256 against the vectors of RFC 7693 and of the reference
+     * implementation, on inputs around the 64-byte block size, and with an
+     * offset into a larger array.
+     */
+    private static void blake2s() {
+        HashFunction blake = HashFunctions.BLAKE2S_256;
+        check(blake.digestLength() == 32, "BLAKE2s-256 digests are 32 bytes");
+        String[][] vectors = {
+            {"", "69217a3079908094e11121d042354a7c1f55b6482ca1a51e1b250dfd1ed0eef9"},
+            {"abc", "508c5e8c327c14e2e1a72ba34eeb452f37458b209ed63a294d999b4c86675982"},
+        };
+        for (String[] vector : vectors) {
+            byte[] input = vector[0].getBytes(StandardCharsets.US_ASCII);
+            check(Utilities.toHex(blake.digest(input, 0, input.length)).equals(vector[1]),
+                    "BLAKE2s-256 of \"" + vector[0] + "\"");
+        }
+        int[] lengths = {64, 65, 1000};
+        String[] digests = {
+            "56f34e8b96557e90c1f24b52d0c89d51086acf1b00f634cf1dde9233b8eaaa3e",
+            "1b53ee94aaf34e4b159d48de352c7f0661d0a40edff95a0b1639b4090e974472",
+            "1c067a5e746fb0f6734efac9a8cdb0e11061f0077f255184365c690115392501",
+        };
+        for (int v = 0; v < lengths.length; v++) {
+            byte[] input = new byte[lengths[v] + 3];
+            for (int i = 0; i < lengths[v]; i++) {
+                input[i + 3] = (byte) (i % 251);
+            }
+            check(Utilities.toHex(blake.digest(input, 3, lengths[v])).equals(digests[v]),
+                    "BLAKE2s-256 of " + lengths[v] + " bytes");
+        }
+    }
+
+    /**
+     * Check that the transactions of one POST /proofs request are served by a
+     * single pass, that every proof verifies against the block root hash,
+     * that a transaction missing from the block gets "none", and that a body
+     * over the limit is refused with 413 without a pass.
+     *
+     * @throws Exception if the server cannot be reached.
+     */
+    private static void proofs() throws Exception {
+        Blockchain chain = new Blockchain(transactions(13, 2000), 1000, HashScheme.DOMAIN_SEPARATED,
+                HashFunctions.SHA_256, TreeLayout.PROMOTED);
+        Block block = chain.get(1);
+        ArrayList<Transaction> requested = new ArrayList<>();
+        for (Transaction t : block) {
+            requested.add(t);
+        }
+        requested.add(new Transaction("nobody", "nowhere", 1, 1));
+        StringBuilder body = new StringBuilder();
+        for (Transaction t : requested) {
+            body.append(t).append('\n');
+        }
+
+        ProofServer server = new ProofServer(chain);
+        server.start(0);
+        try {
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + server.port() + "/proofs?block=1"))
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            check(response.statusCode() == 200, "POST /proofs answered " + response.statusCode());
+            String[] proofs = response.body().split("\n\n");
+            check(proofs.length == requested.size(), "POST /proofs answered " + proofs.length + " proofs");
+            for (int i = 0; i < requested.size() - 1; i++) {
+                check(Utilities.verifyTransaction(requested.get(i), ProofServer.decodeProof(proofs[i]), block,
+                        chain.layout()), "the proof of " + requested.get(i) + " does not verify");
+            }
+            check(proofs[proofs.length - 1].trim().equals("none"), "a missing transaction got a proof");
+            check(server.requests() == requested.size() && server.passes() == 1 && server.treeBuilds() == 1,
+                    "the request took " + server.passes() + " passes");
+
+            byte[] oversized = new byte[ProofServer.MAX_BODY_BYTES + 1];
+            Arrays.fill(oversized, (byte) '\n');
+            response = http.send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + server.port() + "/proofs?block=1"))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(oversized)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            check(response.statusCode() == 413, "an oversized POST /proofs answered " + response.statusCode());
+            check(server.passes() == 1, "an oversized POST /proofs took a pass");
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Check that snapshots asked for from several threads while periodic ones
+     * run all leave a complete snapshot, and that a codec failing with a
+     * RuntimeException is reported without stopping the periodic snapshots.
+     * A Mempool restored from a snapshot has the fee histogram and the copies
+     * of the one written, including removed and given back transactions.
+     *
+     * @throws Exception if the snapshots cannot be written or read.
+     */
+    private static void snapshot() throws Exception {
+        PriorityLine<Transaction> queue = transactions(17, 2000);
+        File file = File.createTempFile("selfcheck", ".snapshot");
+        file.deleteOnExit();
+        boolean[] failing = {true};
+        PriorityLine.Codec<Transaction> codec = new PriorityLine.Codec<Transaction>() {
+            public void write(Transaction element, DataOutput out) throws IOException {
+                if (failing[0]) {
+                    throw new IllegalStateException("failing codec");
+                }
+                Transaction.CODEC.write(element, out);
+            }
+
+            public Transaction read(DataInput in) throws IOException {
+                return Transaction.CODEC.read(in);
+            }
+        };
+        try (MempoolSnapshotter<Transaction> snapshotter = new MempoolSnapshotter<>(queue, file, codec, 1)) {
+            check(eventually(() -> snapshotter.lastError() instanceof IllegalStateException),
+                    "the codec failure was not reported");
+            failing[0] = false;
+            long written = snapshotter.snapshots();
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    for (int k = 0; k < 10; k++) {
+                        snapshotter.snapshot();
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            check(snapshotter.snapshots() >= written + 40 && snapshotter.lastError() == null,
+                    "concurrent snapshots failed: " + snapshotter.lastError());
+            long before = snapshotter.snapshots();
+            check(eventually(() -> snapshotter.snapshots() > before), "the periodic snapshots stopped");
+        }
+        Iterator<Transaction> expected = queue.iterator();
+        for (Transaction t : PriorityLine.readSnapshot(file, Transaction.CODEC)) {
+            check(expected.hasNext() && expected.next().toString().equals(t.toString()),
+                    "the snapshot differs from the queue");
+        }
+        check(!expected.hasNext(), "the snapshot is short");
+        File[] leftovers = file.getAbsoluteFile().getParentFile().listFiles(
+            (dir, name) -> name.startsWith(file.getName()) && name.endsWith(".tmp"));
+        check(leftovers != null && leftovers.length == 0, "temporary snapshot files were left behind");
+
+        Mempool mempool = new Mempool();
+        ArrayList<Transaction> contents = new ArrayList<>();
+        for (Transaction t : transactions(42, 500)) {
+            mempool.enqueue(t);
+            contents.add(t);
+        }
+        ArrayList<Transaction> moved = new ArrayList<>(contents.subList(0, 100));
+        mempool.removeAll(moved);
+        mempool.enqueueAll(moved.subList(0, 50));
+        contents.subList(50, 100).clear();
+        mempool.writeSnapshot(file, Transaction.CODEC);
+        Mempool restored = Mempool.readSnapshot(file);
+        check(restored.totalFees() == mempool.totalFees() && restored.feeQuantile(0.5) == mempool.feeQuantile(0.5)
+                && restored.feeForBlocks(3, 100) == mempool.feeForBlocks(3, 100), "the restored histogram differs");
+        checkMempool(restored, contents, false);
+        check(restored.removeAll(contents) == contents.size(), "the restored copies differ");
+        check(restored.isEmpty() && restored.totalFees() == 0, "the restored mempool is not empty");
+    }
+
+    /**
+     * Measure the pause of a snapshot of a queue of a million transactions:
+     * the capture holds the lock of the queue for a time that grows with its
+     * size and must stay under a second, while the writing of the file holds
+     * no lock, so an enqueue completes while the codec is parked mid-snapshot
+     * and is not part of the snapshot.
+     *
+     * @throws Exception if the snapshot cannot be written.
+     */
+    private static void snapshotPause() throws Exception {
+        int count = 1_000_000;
+        PriorityLine<Transaction> queue = new PriorityLine<>();
+        for (int i = 0; i < count; i++) {
+            queue.enqueue(new Transaction("s", "r", 1, i + 1));
+        }
+        File file = File.createTempFile("selfcheck", ".snapshot");
+        file.deleteOnExit();
+        AtomicLong firstWrite = new AtomicLong();
+        CountDownLatch release = new CountDownLatch(1);
+        PriorityLine.Codec<Transaction> codec = new PriorityLine.Codec<Transaction>() {
+            public void write(Transaction element, DataOutput out) throws IOException {
+                if (firstWrite.compareAndSet(0, System.nanoTime())) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                Transaction.CODEC.write(element, out);
+            }
+
+            public Transaction read(DataInput in) throws IOException {
+                return Transaction.CODEC.read(in);
+            }
+        };
+        int[] written = new int[1];
+        long start = System.nanoTime();
+        Thread writer = new Thread(() -> {
+            try {
+                written[0] = queue.writeSnapshot(file, codec);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        writer.start();
+        try {
+            check(eventually(() -> firstWrite.get() != 0), "the snapshot never started writing");
+            long pauseMillis = (firstWrite.get() - start) / 1_000_000;
+            check(pauseMillis < 1000, "the capture of " + count + " elements took " + pauseMillis + " ms");
+            Thread enqueuer = new Thread(() -> queue.enqueue(new Transaction("s", "r", 1, 0)));
+            enqueuer.start();
+            enqueuer.join(10_000);
+            check(!enqueuer.isAlive(), "an enqueue waited for the snapshot to be written");
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+        check(written[0] == count && queue.size() == count + 1, "the snapshot wrote " + written[0] + " elements");
+        check(PriorityLine.readSnapshot(file, Transaction.CODEC).size() == count, "the snapshot file is short");
+    }
+
+    /**
+     * Check multiproofs on blocks of every size up to 33 in every scheme and
+     * layout: random subsets verify, need no more hash codes than the single
+     * proofs, and fail with a foreign transaction or a changed hash code. A
+     * proof that claims another leaf count, which still verifies against the
+     * root alone, fails once checked against the block.
+     */
+    private static void multiproof() {
+        Random random = new Random(19);
+        for (HashScheme scheme : HashScheme.values()) {
+            for (TreeLayout layout : TreeLayout.values()) {
+                for (int size = 1; size <= 33; size++) {
+                    Block block = new Block();
+                    Transaction[] all = new Transaction[size];
+                    for (int i = 0; i < size; i++) {
+                        all[i] = new Transaction("sender" + i, "receiver" + random.nextInt(1000),
+                                1 + random.nextInt(1000), 1 + random.nextInt(20));
+                        block.addTransaction(all[i]);
+                    }
+                    String root = MerkleTree.computeRoot(block, scheme, HashFunctions.SHA_256, layout);
+                    MerkleTree tree = new MerkleTree(block, scheme, HashFunctions.SHA_256, layout);
+                    for (int trial = 0; trial < 4; trial++) {
+                        int count = 1 + random.nextInt(size);
+                        Transaction[] subset = new Transaction[count];
+                        int singles = 0;
+                        for (int i = 0; i < count; i++) {
+                            subset[i] = all[random.nextInt(size)];
+                            singles += tree.extractMerkleProof(subset[i]).siblings().size();
+                        }
+                        MerkleMultiproof proof = tree.extractMultiproof(subset);
+                        String where = scheme + " " + layout + " " + count + " of " + size;
+                        check(Utilities.verifyTransactions(subset, proof, root), "no proof of " + where);
+                        check(Utilities.verifyTransactions(subset, proof, block, layout)
+                                && Utilities.verifyTransaction(subset[0], tree.extractMerkleProof(subset[0]), block,
+                                layout), "no proof bound to the block, " + where);
+                        check(proof.hashes().size() <= singles, "a multiproof larger than single proofs, " + where);
+                        Transaction[] foreign = subset.clone();
+                        foreign[0] = new Transaction("stranger", "receiver", 1, 1);
+                        check(tree.extractMultiproof(foreign) == null, "a proof of a foreign transaction, " + where);
+                        check(!Utilities.verifyTransactions(foreign, proof, root),
+                                "a foreign transaction verified, " + where);
+                        if (!proof.hashes().isEmpty()) {
+                            SinglyLinkedList<String> changed = new SinglyLinkedList<>();
+                            boolean first = true;
+                            for (String hash : proof.hashes()) {
+                                changed.add(first ? hash.replace(hash.charAt(0), hash.charAt(0) == '0' ? '1' : '0')
+                                        : hash);
+                                first = false;
+                            }
+                            check(!Utilities.verifyTransactions(subset, new MerkleMultiproof(proof.scheme(),
+                                    proof.algorithm(), proof.leafCount(), proof.leafIndices(), changed), root),
+                                    "a changed hash code verified, " + where);
+                        }
+                    }
+                }
+            }
+        }
+
+        Block block = new Block();
+        Transaction last = null;
+        for (int i = 0; i < 3; i++) {
+            last = new Transaction("sender" + i, "receiver", 1, 1);
+            block.addTransaction(last);
+        }
+        MerkleTree tree = new MerkleTree(block, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                TreeLayout.PROMOTED);
+        MerkleProof real = tree.extractMerkleProof(last);
+        MerkleProof forged = new MerkleProof(real.scheme(), real.algorithm(), 4, 5, real.siblings());
+        check(real.leafIndex() == 2 && Utilities.verifyTransaction(last, forged, block.getRootHash()),
+                "the leaf count forgery no longer verifies against the root alone");
+        check(!Utilities.verifyTransaction(last, forged, block, TreeLayout.PROMOTED),
+                "a forged leaf count verified against the block");
+        MerkleMultiproof forgedMulti = new MerkleMultiproof(real.scheme(), real.algorithm(), 5, new int[] {4},
+                real.siblings());
+        check(!Utilities.verifyTransactions(new Transaction[] {last}, forgedMulti, block, TreeLayout.PROMOTED),
+                "a forged leaf count verified against the block");
+    }
+
+    /**
+     * Check that BlockCodec round-trips blocks, filters included, with and
+     * without compression, that hashing an encoded block gives the root of the
+     * decoded one, and that corrupt encodings, truncated ones, huge declared
+     * sizes and invalid UTF-8 names are all rejected with an
+     * IllegalArgumentException.
+     */
+    private static void codec() {
+        Random random = new Random(23);
+        Block empty = new Block();
+        Block block = new Block();
+        for (int i = 0; i < 300; i++) {
+            block.addTransaction(new Transaction("s\u00e9nder" + random.nextInt(40),
+                    "\u53d7\u4fe1" + random.nextInt(40), random.nextInt(2000) - 1000, random.nextInt(30)));
+        }
+        block.setRootHash(MerkleTree.computeRoot(block, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256,
+                TreeLayout.PROMOTED));
+        block.setHashAlgorithm(HashFunctions.SHA_256.id());
+        block.setFilter(BlockFilter.build(block, BlockFilter.DEFAULT_FALSE_POSITIVE_RATE));
+        for (Block original : new Block[] {empty, block}) {
+            for (boolean compress : new boolean[] {false, true}) {
+                byte[] encoded = BlockCodec.encode(original, compress);
+                Block decoded = BlockCodec.decode(encoded);
+                check(describe(decoded).equals(describe(original)), "the block changed in a round trip");
+                check(Objects.equals(BlockCodec.computeRoot(encoded, HashScheme.DOMAIN_SEPARATED,
+                        HashFunctions.SHA_256, TreeLayout.PROMOTED), original.getRootHash()),
+                        "the encoded block hashes to another root");
+                for (int length = 0; length < encoded.length; length++) {
+                    rejected(Arrays.copyOf(encoded, length), "a truncated block was decoded");
+                }
+                for (int trial = 0; trial < 500; trial++) {
+                    byte[] corrupt = encoded.clone();
+                    corrupt[random.nextInt(corrupt.length)] ^= (byte) (1 + random.nextInt(255));
+                    try {
+                        BlockCodec.decode(corrupt);
+                        BlockCodec.computeRoot(corrupt, HashScheme.XOR, HashFunctions.SHA_256, TreeLayout.PADDED);
+                    } catch (IllegalArgumentException e) {
+                        // a corrupt encoding may be rejected, but with nothing else
+                    }
+                }
+            }
+        }
+        rejected(new byte[] {'B', 'C', 1, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0x00},
+                "a block declaring a 2 GB body was decoded");
+        rejected(new byte[] {'B', 'C', 1, 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01},
+                "a block declaring a 256 MB body was decoded");
+        rejected(new byte[] {'B', 'C', 1, 0, 1, 2, (byte) 0xc3, 0x28, 1, 0, 0, 0, 0},
+                "a block with an invalid UTF-8 name was decoded");
+    }
+
+    /**
+     * Check that a corrupt encoding is rejected both by decode and by
+     * computeRoot.
+     *
+     * @param encoded is the encoding.
+     * @param message is the message of the failure.
+     */
+    private static void rejected(byte[] encoded, String message) {
+        try {
+            BlockCodec.decode(encoded);
+            throw new IllegalStateException(message);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            BlockCodec.computeRoot(encoded, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256, TreeLayout.PROMOTED);
+            throw new IllegalStateException(message + " by computeRoot");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Describe a block: its root hash, hash algorithm, filter and
+     * transactions.
+     *
+     * @param block is the block.
+     * @return the description of the block.
+     */
+    private static String describe(Block block) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(block.getRootHash()).append('\n').append(block.getHashAlgorithm()).append('\n');
+        sb.append(block.getFilter() == null ? null : Utilities.toHex(block.getFilter().toByteArray())).append('\n');
+        for (Transaction t : block) {
+            sb.append(t).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check that an OffHeapMerkleTree has the level order of the MerkleTree of
+     * the same block, in every layout.
+     *
+     * @throws IOException if the storage of a tree cannot be released.
+     */
+    private static void offHeap() throws IOException {
+        for (TreeLayout layout : TreeLayout.values()) {
+            for (int size : new int[] {1, 2, 3, 5, 17, 100, 1025}) {
+                Block block = new Block();
+                for (int i = 0; i < size; i++) {
+                    block.addTransaction(new Transaction("sender" + i, "receiver", i + 1, 1));
+                }
+                MerkleTree tree = new MerkleTree(block, HashScheme.DOMAIN_SEPARATED, HashFunctions.SHA_256, layout);
+                try (OffHeapMerkleTree offHeap = new OffHeapMerkleTree(block, HashScheme.DOMAIN_SEPARATED,
+                        HashFunctions.SHA_256, layout)) {
+                    Iterator<String> expected = tree.breadthFirstTraversal().iterator();
+                    for (String hash : offHeap.breadthFirstTraversal()) {
+                        check(expected.hasNext() && expected.next().equals(hash),
+                                "the level order differs, " + layout + " " + size);
+                    }
+                    check(!expected.hasNext(), "the level order is short, " + layout + " " + size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that reorganizations leave in the mempool exactly its transactions
+     * and those of the dropped blocks, less those of the new branch, copy by
+     * copy, and that blocks below the finality depth are forgotten.
+     */
+    private static void reorg() {
+        Random random = new Random(39);
+        Blockchain chain = new Blockchain(new PriorityLine<>(), 1);
+        Mempool mempool = new Mempool();
+        chain.setMempool(mempool);
+        ArrayList<Transaction> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Transaction t = duplicate(random);
+            mempool.enqueue(t);
+            expected.add(t);
+        }
+        Block[] main = new Block[8];
+        for (int i = 0; i < 6; i++) {
+            main[i] = block(random, 5, 0);
+            chain.addBlock(i == 0 ? null : main[i - 1], main[i]);
+        }
+        Block[] side = new Block[4];
+        for (int i = 0; i < side.length; i++) {
+            side[i] = block(random, 5, i == side.length - 1 ? 100 : 0);
+            chain.addBlock(i == 0 ? main[2] : side[i - 1], side[i]);
+        }
+        check(chain.tip() == side[3] && chain.reorganizedBlocks() == 3, "the chain did not switch to the branch");
+        moved(expected, main, 3, 6, side, 0, 4);
+        checkMempool(mempool, expected, false);
+        main[6] = block(random, 5, 0);
+        main[7] = block(random, 5, 200);
+        chain.addBlock(main[5], main[6]);
+        chain.addBlock(main[6], main[7]);
+        check(chain.tip() == main[7] && chain.reorganizedBlocks() == 7, "the chain did not switch back");
+        moved(expected, side, 0, 4, main, 3, 8);
+        checkMempool(mempool, expected, true);
+        check(mempool.isEmpty() && mempool.totalFees() == 0, "the drained mempool is not empty");
+
+        Blockchain pruned = new Blockchain(new PriorityLine<>(), 1);
+        pruned.setFinalityDepth(2);
+        Block[] blocks = new Block[6];
+        Block fork = block(random, 0, 1);
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = block(random, 2, 0);
+            pruned.addBlock(i == 0 ? null : blocks[i - 1], blocks[i]);
+            if (i == 1) {
+                check(!pruned.addBlock(blocks[0], fork), "the fork became the chain");
+            }
+        }
+        check(pruned.finalized() == 4 && pruned.tips().size() == 1, "the final blocks were not pruned");
+        check(refused(() -> pruned.addBlock(blocks[3], block(random, 1, 0))), "a final parent was accepted");
+        check(refused(() -> pruned.addBlock(null, block(random, 1, 0))), "a first block was accepted");
+        check(refused(() -> pruned.addBlock(fork, block(random, 1, 0))), "a pruned parent was accepted");
+        Block late = block(random, 0, 1);
+        check(!pruned.addBlock(blocks[4], late), "a light branch became the chain");
+        Block heavy = block(random, 1, 1000);
+        check(pruned.addBlock(late, heavy) && pruned.tip() == heavy, "a branch above the final blocks lost");
+    }
+
+    /**
+     * Check that an external sort with enough runs for a merge pass gives the
+     * transactions of the file by decreasing fee, ties in the order of the
+     * file, ignoring extra fields, and that its temporary files are deleted
+     * when it is closed and when it fails.
+     *
+     * @throws IOException if the files cannot be written or the sort fails.
+     */
+    private static void externalSort() throws IOException {
+        Random random = new Random(40);
+        Path text = Files.createTempFile("transactions", ".txt");
+        try {
+            ArrayList<Transaction> expected = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                Transaction t = new Transaction("sender" + random.nextInt(50), "receiver" + random.nextInt(50),
+                        random.nextInt(1000), random.nextInt(30));
+                expected.add(t);
+                sb.append(t.getSender()).append(' ').append(t.getReceiver()).append(' ').append(t.getAmount())
+                        .append(' ').append(t.getFee()).append(i % 10 == 0 ? " extra\n\n" : "\n");
+            }
+            Files.writeString(text, sb);
+            expected.sort((a, b) -> Integer.compare(b.getFee(), a.getFee()));
+            Path directory = Files.createTempDirectory("runs");
+            try (ExternalTransactionSort sorted = new ExternalTransactionSort(text.toString(), 7, 2, directory)) {
+                check(sorted.initialRuns() > ExternalTransactionSort.FAN_IN, "no merge pass");
+                for (Transaction t : expected) {
+                    check(sorted.hasNext() && sorted.next().toString().equals(t.toString()),
+                            "the sort is out of order");
+                }
+                check(!sorted.hasNext(), "the sort is too long");
+            }
+            check(!Files.exists(directory), "the runs were left after close");
+            Files.writeString(text, sb.append("sender receiver 1\n"));
+            Path failed = Files.createTempDirectory("runs");
+            check(refused(() -> {
+                try {
+                    new ExternalTransactionSort(text.toString(), 7, 2, failed).close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }), "a short line was accepted");
+            check(!Files.exists(failed), "the runs were left after a failure");
+        } finally {
+            Files.deleteIfExists(text);
+        }
+    }
+
+    /**
+     * Check Merkle Mountain Ranges and chain proofs of 1 to 33 leaves in both
+     * schemes: every proof verifies against the root, a tampered peak, path
+     * hash, leaf or block root fails, a truncated range has the root of a
+     * range built from the same prefix, and so does the chain after a
+     * reorganization. A changed index fails in every scheme when it moves the
+     * leaf to another mountain; within a mountain only DOMAIN_SEPARATED binds
+     * it, since XOR combines children in any order.
+     */
+    private static void mmr() {
+        HashFunction function = HashFunctions.SHA_256;
+        int max = (1 << 5) + 1;
+        String[] leaves = new String[max];
+        for (int i = 0; i < max; i++) {
+            leaves[i] = Utilities.cryptographicHashFunction("leaf" + i);
+        }
+        String foreign = Utilities.cryptographicHashFunction("foreign");
+        for (HashScheme scheme : HashScheme.values()) {
+            MerkleMountainRange full = new MerkleMountainRange(scheme, function);
+            for (String leaf : leaves) {
+                full.append(leaf);
+            }
+            for (int size = 1; size <= max; size++) {
+                MerkleMountainRange range = new MerkleMountainRange(scheme, function);
+                for (int i = 0; i < size; i++) {
+                    range.append(leaves[i]);
+                }
+                String root = range.rootHash();
+                String where = scheme + " " + size;
+                for (int i = 0; i < size; i++) {
+                    MerkleMountainRange.Proof proof = range.extractProof(i);
+                    check(MerkleMountainRange.verify(leaves[i], proof, root), "leaf " + i + " fails, " + where);
+                    check(!MerkleMountainRange.verify(foreign, proof, root), "a foreign leaf verifies, " + where);
+                    for (int k = 0; k < proof.peaks().size(); k++) {
+                        check(!MerkleMountainRange.verify(leaves[i], new MerkleMountainRange.Proof(scheme,
+                                proof.algorithm(), i, size, proof.path(), replaced(proof.peaks(), k, foreign)),
+                                root), "a tampered peak verifies, " + where);
+                    }
+                    for (int k = 0; k < proof.path().size(); k++) {
+                        check(!MerkleMountainRange.verify(leaves[i], new MerkleMountainRange.Proof(scheme,
+                                proof.algorithm(), i, size, replaced(proof.path(), k, foreign), proof.peaks()),
+                                root), "a tampered path verifies, " + where);
+                    }
+                    for (int j = -1; j <= size; j++) {
+                        if (j != i && (scheme == HashScheme.DOMAIN_SEPARATED || !sameMountain(i, j, size))) {
+                            check(!MerkleMountainRange.verify(leaves[i], new MerkleMountainRange.Proof(scheme,
+                                    proof.algorithm(), j, size, proof.path(), proof.peaks()), root),
+                                    "leaf " + i + " verifies at index " + j + ", " + where);
+                        }
+                    }
+                }
+                MerkleMountainRange truncated = new MerkleMountainRange(scheme, function);
+                for (String leaf : leaves) {
+                    truncated.append(leaf);
+                }
+                truncated.truncate(size);
+                check(truncated.size() == size && root.equals(truncated.rootHash()),
+                        "a truncated range differs, " + where);
+                truncated.append(foreign);
+                range.append(foreign);
+                check(range.rootHash().equals(truncated.rootHash()), "an append after truncate differs, " + where);
+            }
+
+            Blockchain chain = new Blockchain(new PriorityLine<>(), 1, scheme);
+            Random random = new Random(28);
+            for (int b = 0; b < max; b++) {
+                chain.addBlock(chain.tip(), block(random, 1 + b % 3, 0));
+                String root = chain.rootHash();
+                for (int i = 0; i < chain.size(); i++) {
+                    for (Transaction t : chain.get(i)) {
+                        ChainProof proof = chain.extractProof(i, t);
+                        check(Utilities.verifyTransaction(t, proof, root), "a chain proof fails, " + scheme);
+                        String other = chain.get((i + 1) % chain.size()).getRootHash();
+                        if (!other.equals(proof.blockRootHash())) {
+                            check(!Utilities.verifyTransaction(t, new ChainProof(proof.transactionProof(), other,
+                                    proof.blockProof()), root), "a tampered block root verifies, " + scheme);
+                        }
+                    }
+                }
+            }
+            Block[] branch = new Block[3];
+            Block parent = chain.get(chain.size() - 6);
+            for (int i = 0; i < branch.length; i++) {
+                branch[i] = block(random, 2, i == branch.length - 1 ? 1000 : 0);
+                chain.addBlock(parent, branch[i]);
+                parent = branch[i];
+            }
+            check(chain.tip() == branch[2], "the chain did not switch to the branch, " + scheme);
+            MerkleMountainRange rebuilt = new MerkleMountainRange(scheme, function);
+            for (Block block : chain) {
+                rebuilt.append(block.getRootHash());
+            }
+            check(rebuilt.rootHash().equals(chain.rootHash()), "the root after a reorganization differs, " + scheme);
+        }
+    }
+
+    /**
+     * Check MerkleDiff on pairs of trees of odd and even sizes in both layouts
+     * and schemes that differ in no leaf, one leaf, the first and last leaves
+     * and every leaf: the exact positions are found, the walk fetches only the
+     * root when the trees agree and at most two nodes per differing leaf on
+     * each level below it, and trees of different leaf counts are refused.
+     */
+    private static void merkleDiff() {
+        for (TreeLayout layout : TreeLayout.values()) {
+            for (HashScheme scheme : HashScheme.values()) {
+                for (int size : new int[] {1, 2, 3, 5, 8, 13, 33, 100, 1001}) {
+                    String where = layout + " " + scheme + " " + size + " leaves";
+                    int[][] cases = {{}, {size / 2}, size == 1 ? new int[] {0} : new int[] {0, size - 1}, null};
+                    for (int[] positions : cases) {
+                        if (positions == null) {
+                            positions = new int[size];
+                            for (int i = 0; i < size; i++) {
+                                positions[i] = i;
+                            }
+                        }
+                        Block ours = new Block();
+                        Block theirs = new Block();
+                        int next = 0;
+                        for (int i = 0; i < size; i++) {
+                            Transaction t = new Transaction("a" + i, "b" + i, i + 1, 1);
+                            ours.addTransaction(t);
+                            if (next < positions.length && positions[next] == i) {
+                                theirs.addTransaction(new Transaction("a" + i, "b" + i, i + 1_000_001, 1));
+                                next++;
+                            } else {
+                                theirs.addTransaction(t);
+                            }
+                        }
+                        long[] fetched = new long[2];
+                        MerkleDiff.NodeFetcher local = counting(new MerkleTree(ours, scheme, HashFunctions.SHA_256,
+                                layout), fetched, 0);
+                        MerkleDiff.NodeFetcher remote = counting(new MerkleTree(theirs, scheme,
+                                HashFunctions.SHA_256, layout), fetched, 1);
+                        int[] found = MerkleDiff.diff(local, remote);
+                        check(Arrays.equals(found, positions), "found " + Arrays.toString(found) + " instead of "
+                                + Arrays.toString(positions) + ", " + where);
+                        int height = 32 - Integer.numberOfLeadingZeros(local.leafCount() - 1);
+                        long bound = positions.length == 0 ? 1 : 1 + 2L * positions.length * height;
+                        check(fetched[0] == fetched[1] && fetched[0] <= bound, "fetched " + fetched[0]
+                                + " hash codes for " + positions.length + " differing leaves, " + where);
+                    }
+                }
+                Block five = block(new Random(5), 5, 0);
+                Block other = block(new Random(6), layout == TreeLayout.PADDED ? 9 : 6, 0);
+                check(refused(() -> MerkleDiff.diff(new MerkleTree(five, scheme, HashFunctions.SHA_256, layout),
+                        new MerkleTree(other, scheme, HashFunctions.SHA_256, layout))),
+                        "trees of different leaf counts were aligned, " + layout + " " + scheme);
+            }
+        }
+    }
+
+    /**
+     * Check the fee estimates of a mempool against an exact walk of its
+     * transactions sorted by decreasing fee and cut into blocks as the chain
+     * cuts them: feeForBlocks is never below the lowest fee that the walk takes
+     * into the next blocks, and at most one bucket above the lowest fee whose
+     * transactions ahead weigh less than the next blocks; a quantile is at
+     * most one bucket above the exact one. The pools include an empty one, one
+     * that fits in fewer blocks than asked, one cut right on a bucket boundary
+     * and one that lost part of its transactions.
+     */
+    private static void fees() {
+        Random random = new Random(23);
+        ArrayList<ArrayList<Integer>> pools = new ArrayList<>();
+        pools.add(new ArrayList<>());
+        ArrayList<Integer> spread = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            spread.add(1 + random.nextInt(random.nextBoolean() ? 20 : 5000));
+        }
+        pools.add(spread);
+        ArrayList<Integer> boundary = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            boundary.add(1024);
+            boundary.add(1023);
+            boundary.add(16);
+            boundary.add(15);
+        }
+        pools.add(boundary);
+        for (ArrayList<Integer> pool : pools) {
+            Mempool mempool = new Mempool();
+            ArrayList<Transaction> added = new ArrayList<>();
+            for (int i = 0; i < pool.size(); i++) {
+                Transaction t = new Transaction("s" + i, "r" + i, 1, pool.get(i));
+                mempool.enqueue(t);
+                added.add(t);
+            }
+            checkFees(mempool, pool);
+            if (pool.size() > 100) {
+                mempool.removeAll(added.subList(0, pool.size() / 2));
+                checkFees(mempool, new ArrayList<>(pool.subList(pool.size() / 2, pool.size())));
+            }
+        }
+    }
+
+    /**
+     * Compare the fee estimates of a mempool with the exact answers for its
+     * fees, for several numbers of blocks and thresholds.
+     *
+     * @param mempool is the mempool.
+     * @param pool    is the fees of its transactions.
+     */
+    private static void checkFees(Mempool mempool, ArrayList<Integer> pool) {
+        Integer[] sorted = pool.toArray(new Integer[0]);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (int fee : sorted) {
+            total += fee;
+        }
+        int highest = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        String where = sorted.length + " transactions";
+        check(mempool.totalFees() == total, "the histogram holds " + mempool.totalFees() + " fees, " + where);
+        for (int threshold : new int[] {1, 100, 4096, 50000}) {
+            for (int blocks : new int[] {1, 2, 5, 50, 1_000_000}) {
+                int estimate = mempool.feeForBlocks(blocks, threshold);
+                int walked = highest + 1;
+                int weighed = highest + 1;
+                for (int fee = highest; fee >= 1; fee--) {
+                    long ahead = 0;
+                    int cut = 0;
+                    long block = 0;
+                    for (int i = sorted.length - 1; i >= 0 && sorted[i] > fee; i--) {
+                        ahead += sorted[i];
+                        block += sorted[i];
+                        if (block >= threshold) {
+                            cut++;
+                            block = 0;
+                        }
+                    }
+                    if (cut < blocks) {
+                        walked = fee;
+                    }
+                    if (ahead < (long) blocks * threshold) {
+                        weighed = fee;
+                    }
+                }
+                String at = blocks + " blocks of " + threshold + ", " + where;
+                check(estimate >= walked, "the estimate " + estimate + " is below the walked " + walked + ", " + at);
+                check(estimate >= weighed && estimate <= FeeHistogram.highest(FeeHistogram.bucket(weighed)) + 1,
+                        "the estimate " + estimate + " is over a bucket above " + weighed + ", " + at);
+                if (total < (long) blocks * threshold) {
+                    check(estimate == 1, "a pool that fits in " + at + " needs " + estimate);
+                }
+            }
+        }
+        for (double q : new double[] {0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            int quantile = mempool.feeQuantile(q);
+            if (sorted.length == 0) {
+                check(quantile == 0, "the quantile " + q + " of an empty pool is " + quantile);
+                continue;
+            }
+            int exact = sorted[(int) Math.max(1, Math.ceil(q * sorted.length)) - 1];
+            check(quantile >= exact && quantile <= FeeHistogram.highest(FeeHistogram.bucket(exact)),
+                    "the quantile " + q + " is " + quantile + " instead of " + exact + ", " + where);
+        }
+        check(refused(() -> mempool.feeQuantile(1.5)) && refused(() -> mempool.feeForBlocks(0, 100)),
+                "an invalid fee query was answered");
+    }
+
+    /**
+     * Returns true if two leaves of a range are under the same mountain.
+     *
+     * @param i    is the index of a leaf.
+     * @param j    is the index of another leaf.
+     * @param size is the number of leaves.
+     * @return true if both leaves are under the same mountain.
+     */
+    private static boolean sameMountain(int i, int j, int size) {
+        int start = 0;
+        for (int h = 31; h >= 0; h--) {
+            if ((size & (1 << h)) != 0) {
+                int end = start + (1 << h);
+                if (i < end || j < end) {
+                    return i >= start && i < end && j >= start && j < end;
+                }
+                start = end;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy a list of hash codes with one of them replaced.
+     *
+     * @param list  is the list.
+     * @param index is the position of the replaced hash code.
+     * @param value is the new hash code.
+     * @return the copy.
+     */
+    private static SinglyLinkedList<String> replaced(SinglyLinkedList<String> list, int index, String value) {
+        SinglyLinkedList<String> copy = new SinglyLinkedList<>();
+        int i = 0;
+        for (String hash : list) {
+            copy.add(i++ == index ? value : hash);
+        }
+        return copy;
+    }
+
+    /**
+     * Apply a reorganization to the expected content of a mempool: the
+     * transactions of the dropped blocks come back, then each transaction of
+     * the new blocks takes out one copy, if there is one.
+     *
+     * @param expected     is the expected content of the mempool.
+     * @param dropped      is the blocks of the old branch.
+     * @param droppedFrom  is the first dropped block.
+     * @param droppedTo    is the block after the last dropped block.
+     * @param included     is the blocks of the new branch.
+     * @param includedFrom is the first new block.
+     * @param includedTo   is the block after the last new block.
+     */
+    private static void moved(ArrayList<Transaction> expected, Block[] dropped, int droppedFrom, int droppedTo,
+            Block[] included, int includedFrom, int includedTo) {
+        for (int i = droppedFrom; i < droppedTo; i++) {
+            for (Transaction t : dropped[i]) {
+                expected.add(t);
+            }
+        }
+        for (int i = includedFrom; i < includedTo; i++) {
+            for (Transaction t : included[i]) {
+                expected.remove(t);
+            }
+        }
+    }
+
+    /**
+     * Check that a mempool holds the expected transactions, copy by copy, by
+     * decreasing fee, with a histogram in step.
+     *
+     * @param mempool  is the mempool.
+     * @param expected is the expected transactions.
+     * @param drain    is true to dequeue the transactions instead of iterating
+     *                 over them.
+     */
+    private static void checkMempool(Mempool mempool, ArrayList<Transaction> expected, boolean drain) {
+        long total = 0;
+        ArrayList<String> wanted = new ArrayList<>();
+        for (Transaction t : expected) {
+            wanted.add(t.toString());
+            total += t.getFee();
+        }
+        wanted.sort(null);
+        check(mempool.size() == expected.size() && mempool.totalFees() == total, "the mempool size differs");
+        ArrayList<String> actual = new ArrayList<>();
+        int fee = Integer.MAX_VALUE;
+        Iterator<Transaction> it = drain ? null : mempool.iterator();
+        while (drain ? !mempool.isEmpty() : it.hasNext()) {
+            Transaction t = drain ? mempool.dequeue() : it.next();
+            check(t.getFee() <= fee, "the mempool is out of order");
+            fee = t.getFee();
+            actual.add(t.toString());
+        }
+        actual.sort(null);
+        check(actual.equals(wanted), "the mempool holds " + actual + " instead of " + wanted);
+    }
+
+    /**
+     * Generate a transaction from a small set, so that copies are frequent.
+     *
+     * @param random is the source of the transaction.
+     * @return the transaction.
+     */
+    private static Transaction duplicate(Random random) {
+        return new Transaction("s" + random.nextInt(3), "r" + random.nextInt(3), 1 + random.nextInt(2),
+                1 + random.nextInt(4));
+    }
+
+    /**
+     * Wrap a local tree in a fetcher that counts the hash codes it serves.
+     *
+     * @param tree    is the tree.
+     * @param fetched is the counters of the hash codes served.
+     * @param slot    is the counter of this fetcher.
+     * @return the counting fetcher.
+     */
+    private static MerkleDiff.NodeFetcher counting(MerkleTree tree, long[] fetched, int slot) {
+        MerkleDiff.NodeFetcher fetcher = MerkleDiff.local(tree);
+        return new MerkleDiff.NodeFetcher() {
+            public int leafCount() {
+                return fetcher.leafCount();
+            }
+
+            public String[] nodeHashes(int level, int[] indices) {
+                fetched[slot] += indices.length;
+                return fetcher.nodeHashes(level, indices);
+            }
+        };
+    }
+
+    /**
+     * Generate a block of transactions from a small set.
+     *
+     * @param random is the source of the transactions.
+     * @param size   is the number of transactions.
+     * @param bonus  is the fee of an extra transaction, or 0 for none.
+     * @return the block.
+     */
+    private static Block block(Random random, int size, int bonus) {
+        Block block = new Block();
+        for (int i = 0; i < size; i++) {
+            block.addTransaction(duplicate(random));
+        }
+        if (bonus > 0) {
+            block.addTransaction(new Transaction("s0", "r0", 1, bonus));
+        }
+        return block;
+    }
+
+    /**
+     * Generate a queue of transactions.
+     *
+     * @param seed  is the seed of the transactions.
+     * @param count is the number of transactions.
+     * @return the queue of the transactions.
+     */
+    private static PriorityLine<Transaction> transactions(long seed, int count) {
+        Random random = new Random(seed);
+        PriorityLine<Transaction> queue = new PriorityLine<>();
+        for (int i = 0; i < count; i++) {
+            queue.enqueue(new Transaction("sender" + random.nextInt(100), "receiver" + random.nextInt(100),
+                    1 + random.nextInt(1000), 1 + random.nextInt(20)));
+        }
+        return queue;
+    }
+
+    /**
+     * Returns true if an action throws an IllegalArgumentException.
+     *
+     * @param action is the action.
+     * @return true if the action was refused.
+     */
+    private static boolean refused(Runnable action) {
+        try {
+            action.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Wait up to ten seconds for a condition to hold.
+     *
+     * @param condition is the condition.
+     * @return true if the condition held in time.
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Fail a check.
+     *
+     * @param condition is the condition that must hold.
+     * @param message   is the message of the failure.
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
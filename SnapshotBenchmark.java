@@ -0,0 +1,65 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Compares a cold start of the mempool, parsing the transaction text file
+ * and inserting every transaction into the priority queue, with a warm
+ * restart from a binary snapshot. It also checks that the reloaded queue holds
+ * the same transactions in the same order.
+ *
+ * <pre>
+ * java SnapshotBenchmark [transactions]
+ * </pre>
+ */
+public class SnapshotBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the number of transactions.
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        File text = File.createTempFile("mempool", ".txt");
+        File snapshot = File.createTempFile("mempool", ".snapshot");
+        text.deleteOnExit();
+        snapshot.deleteOnExit();
+        Random random = new Random(42);
+        try (PrintWriter out = new PrintWriter(text, "UTF-8")) {
+            for (int i = 0; i < count; i++) {
+                out.println("sender" + random.nextInt(count) + " receiver" + random.nextInt(count) + " "
+                        + random.nextInt(100000) + " " + random.nextInt(1000));
+            }
+        }
+
+        long start = System.nanoTime();
+        PriorityLine<Transaction> parsed = Utilities.loadTransactions(text.getPath());
+        double parseMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        parsed.writeSnapshot(snapshot, Transaction.CODEC);
+        double writeMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        PriorityLine<Transaction> reloaded = PriorityLine.readSnapshot(snapshot, Transaction.CODEC);
+        double readMillis = (System.nanoTime() - start) / 1e6;
+
+        Iterator<Transaction> expected = parsed.iterator();
+        for (Transaction t : reloaded) {
+            if (!expected.hasNext() || !t.toString().equals(expected.next().toString())) {
+                throw new IllegalStateException("reloaded queue differs");
+            }
+        }
+        if (expected.hasNext()) {
+            throw new IllegalStateException("reloaded queue differs");
+        }
+
+        System.out.printf("%d transactions, text %d KB, snapshot %d KB%n", count, text.length() / 1024,
+                snapshot.length() / 1024);
+        System.out.printf("parse and insert: %10.1f ms%n", parseMillis);
+        System.out.printf("write snapshot:   %10.1f ms%n", writeMillis);
+        System.out.printf("read snapshot:    %10.1f ms (%.0fx faster)%n", readMillis, parseMillis / readMillis);
+    }
+}
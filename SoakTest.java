@@ -0,0 +1,320 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Runs the whole flow of Main over and over on synthetic transactions, for a
+ * duration or a number of transactions, and reports the sustained throughput
+ * as JSON, so that releases can be gated on it.
+ * Each round generates transactions from a seeded generator and writes them to
+ * a text file, then loads the file into a PriorityLine, builds a Blockchain,
+ * builds the Merkle Tree of every block, and extracts and verifies the proof
+ * of every transaction. Every round also checks invariants: a Mempool holding
+ * the loaded transactions has the pending count and the fees in its histogram
+ * of the round, and both are back to zero once the transactions of every
+ * block are removed from it; the blocks hold every transaction; every rebuilt
+ * tree has the root hash sealed in its block; and the chain root hash equals
+ * the root of a Merkle Mountain Range rebuilt over the block root hashes.
+ * After the run, no rate, stage time or latency may be negative. Runs with the
+ * same seed and the same number of transactions process the same transactions
+ * and report the same content hash, the root of a Merkle Mountain Range over
+ * the root hashes of all the blocks.
+ * The report holds transactions, blocks and proofs per second, all over the
+ * wall time of the whole run, the time of each stage, the p50 and p99 of the
+ * proof, tree and round latencies, the peak heap and the time spent in
+ * garbage collection. The peak heap is the sum of the peak usages the JVM
+ * tracks for each heap pool from the start of the run, so it sees the
+ * highs between collections, not only what is left after a round; as the
+ * pools may peak at different times, it can be above the true peak. The
+ * latencies are recorded in FeeHistogram instances, whose logarithmic buckets
+ * suit nanoseconds as well as fees: a percentile is the top of its bucket, at
+ * most 1/8 above the exact value.
+ *
+ * <pre>
+ * java SoakTest [seconds] [max transactions] [transactions per round] [threshold] [seed] [json file]
+ *               [minimum transactions per second]
+ * </pre>
+ * A max of 0 transactions runs for the whole duration, a duration of 0 runs
+ * until the max. The report is always printed, and also written to the JSON
+ * file unless it is "-". The exit status is 1 if a proof fails to verify, 3
+ * if an invariant breaks, the first broken one being printed to the standard
+ * error, and 2 if the throughput is below the minimum.
+ */
+public class SoakTest {
+    /**
+     * Runs the soak test.
+     *
+     * @param args optionally, the duration in seconds, the max number of
+     *             transactions, the number of transactions per round, the
+     *             block threshold, the seed, the file of the JSON report and
+     *             the minimum throughput.
+     * @throws IOException if the transaction file or the report cannot be
+     *                     written.
+     */
+    public static void main(String[] args) throws IOException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 30;
+        long maxTransactions = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int roundSize = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int threshold = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        String report = args.length > 5 && !args[5].equals("-") ? args[5] : null;
+        double minimum = args.length > 6 ? Double.parseDouble(args[6]) : 0;
+        if (seconds <= 0 && maxTransactions <= 0) {
+            throw new IllegalArgumentException("give a duration or a number of transactions");
+        }
+
+        Random random = new Random(seed);
+        File file = File.createTempFile("soak", ".txt");
+        file.deleteOnExit();
+        MerkleMountainRange content = new MerkleMountainRange();
+        FeeHistogram proofLatency = new FeeHistogram();
+        FeeHistogram treeLatency = new FeeHistogram();
+        FeeHistogram roundLatency = new FeeHistogram();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        long[] gcBefore = gcStats();
+        long transactions = 0;
+        long blocks = 0;
+        long proofs = 0;
+        long failures = 0;
+        long violations = 0;
+        String violation = null;
+        long rounds = 0;
+        long loadNanos = 0;
+        long chainNanos = 0;
+        long treeNanos = 0;
+        long proofNanos = 0;
+        long deadline = seconds > 0 ? System.nanoTime() + (long) (seconds * 1e9) : Long.MAX_VALUE;
+        long start = System.nanoTime();
+
+        while (System.nanoTime() < deadline && (maxTransactions <= 0 || transactions < maxTransactions)) {
+            int size = maxTransactions > 0 ? (int) Math.min(roundSize, maxTransactions - transactions) : roundSize;
+            StringBuilder text = new StringBuilder(size * 32);
+            long roundFees = 0;
+            for (int i = 0; i < size; i++) {
+                text.append("sender").append(random.nextInt(10000)).append(" receiver")
+                        .append(random.nextInt(10000)).append(' ').append(10000 + random.nextInt(90000));
+                int fee = 1 + random.nextInt(20);
+                text.append(' ').append(fee).append('\n');
+                roundFees += fee;
+            }
+            Files.writeString(file.toPath(), text, StandardCharsets.UTF_8);
+
+            long roundStart = System.nanoTime();
+            PriorityLine<Transaction> queue = Utilities.loadTransactions(file.getPath());
+            long loaded = System.nanoTime();
+            ArrayList<Transaction> pending = new ArrayList<>(size);
+            for (Transaction t : queue) {
+                pending.add(t);
+            }
+            Mempool mempool = new Mempool();
+            mempool.enqueueAll(pending);
+            String broken = null;
+            if (mempool.size() != size || mempool.totalFees() != roundFees) {
+                broken = "the mempool holds " + mempool.size() + " transactions and " + mempool.totalFees()
+                        + " fees instead of " + size + " and " + roundFees;
+            }
+            long chainStart = System.nanoTime();
+            Blockchain chain = new Blockchain(queue, threshold);
+            long built = System.nanoTime();
+            loadNanos += loaded - roundStart;
+            chainNanos += built - chainStart;
+
+            MerkleMountainRange rebuilt = new MerkleMountainRange(chain.scheme(), chain.function());
+            long chained = 0;
+            for (Block block : chain) {
+                String sealed = block.getRootHash();
+                rebuilt.append(sealed);
+                chained += block.numOfTransactions();
+                mempool.removeAll(block);
+                long treeStart = System.nanoTime();
+                MerkleTree tree = new MerkleTree(block, chain.scheme(), chain.function(), chain.layout());
+                long treeEnd = System.nanoTime();
+                treeNanos += treeEnd - treeStart;
+                treeLatency.add(clamp(treeEnd - treeStart));
+                if (broken == null && !block.getRootHash().equals(sealed)) {
+                    broken = "a rebuilt tree has the root " + block.getRootHash() + " instead of " + sealed;
+                }
+                for (Transaction t : block) {
+                    long proofStart = System.nanoTime();
+                    MerkleProof proof = tree.extractMerkleProof(t);
+                    boolean verified = Utilities.verifyTransaction(t, proof, block, chain.layout());
+                    long proofEnd = System.nanoTime();
+                    proofNanos += proofEnd - proofStart;
+                    proofLatency.add(clamp(proofEnd - proofStart));
+                    proofs++;
+                    if (!verified) {
+                        failures++;
+                    }
+                }
+                content.append(block.getRootHash());
+                blocks++;
+            }
+            roundLatency.add(clamp(System.nanoTime() - roundStart));
+            if (broken == null && chained != size) {
+                broken = "the chain holds " + chained + " of " + size + " transactions";
+            }
+            if (broken == null && (!mempool.isEmpty() || mempool.totalFees() != 0)) {
+                broken = "the mined mempool holds " + mempool.size() + " transactions and "
+                        + mempool.totalFees() + " fees";
+            }
+            if (broken == null && !Objects.equals(chain.rootHash(), rebuilt.rootHash())) {
+                broken = "the chain root " + chain.rootHash() + " differs from the rebuilt " + rebuilt.rootHash();
+            }
+            if (broken != null) {
+                violations++;
+                if (violation == null) {
+                    violation = "round " + rounds + ": " + broken;
+                }
+            }
+            transactions += size;
+            rounds++;
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long[] gcAfter = gcStats();
+        Object[] fields = {
+            "seed", seed,
+            "durationSeconds", seconds,
+            "maxTransactions", maxTransactions,
+            "transactionsPerRound", roundSize,
+            "threshold", threshold,
+            "processors", Runtime.getRuntime().availableProcessors(),
+            "javaVersion", System.getProperty("java.version"),
+            "rounds", rounds,
+            "transactions", transactions,
+            "blocks", blocks,
+            "proofs", proofs,
+            "proofFailures", failures,
+            "invariantViolations", violations,
+            "elapsedSeconds", elapsed,
+            "transactionsPerSecond", transactions / elapsed,
+            "blocksPerSecond", blocks / elapsed,
+            "proofsPerSecond", proofs / elapsed,
+            "loadMillis", loadNanos / 1e6,
+            "chainMillis", chainNanos / 1e6,
+            "treeMillis", treeNanos / 1e6,
+            "proofMillis", proofNanos / 1e6,
+            "proofLatencyP50Micros", proofLatency.quantile(0.5) / 1e3,
+            "proofLatencyP99Micros", proofLatency.quantile(0.99) / 1e3,
+            "treeLatencyP50Micros", treeLatency.quantile(0.5) / 1e3,
+            "treeLatencyP99Micros", treeLatency.quantile(0.99) / 1e3,
+            "roundLatencyP50Millis", roundLatency.quantile(0.5) / 1e6,
+            "roundLatencyP99Millis", roundLatency.quantile(0.99) / 1e6,
+            "peakHeapMegabytes", peakHeap() / 1048576.0,
+            "maxHeapMegabytes", Runtime.getRuntime().maxMemory() / 1048576.0,
+            "gcCount", gcAfter[0] - gcBefore[0],
+            "gcMillis", gcAfter[1] - gcBefore[1],
+            "contentHash", content.rootHash(),
+        };
+        for (int i = 1; i < fields.length; i += 2) {
+            if (fields[i] instanceof Number && ((Number) fields[i]).doubleValue() < 0) {
+                violations++;
+                if (violation == null) {
+                    violation = fields[i - 1] + " is negative: " + fields[i];
+                }
+            }
+        }
+        for (int i = 0; i < fields.length; i += 2) {
+            if (fields[i].equals("invariantViolations")) {
+                fields[i + 1] = violations;
+            }
+        }
+        String json = toJson(fields);
+        System.out.println(json);
+        if (report != null) {
+            try (PrintWriter out = new PrintWriter(report, "UTF-8")) {
+                out.println(json);
+            }
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+        if (violations > 0) {
+            System.err.println(violations + " invariant violations, first: " + violation);
+            System.exit(3);
+        }
+        if (transactions / elapsed < minimum) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Fit a duration in the range of the histograms.
+     *
+     * @param nanos is the duration in nanoseconds.
+     * @return the duration, at most Integer.MAX_VALUE.
+     */
+    private static int clamp(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, nanos);
+    }
+
+    /**
+     * Write a flat JSON object.
+     *
+     * @param fields is the names and values of the fields, alternately; values
+     *               are strings, numbers or null.
+     * @return the JSON text.
+     */
+    private static String toJson(Object[] fields) {
+        StringBuilder sb = new StringBuilder("{\n");
+        for (int i = 0; i < fields.length; i += 2) {
+            Object value = fields[i + 1];
+            sb.append("  \"").append(fields[i]).append("\": ");
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof String) {
+                sb.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else if (value instanceof Double) {
+                double d = (Double) value;
+                sb.append(Double.isFinite(d) ? String.format(Locale.ROOT, "%.3f", d) : "null");
+            } else {
+                sb.append(value);
+            }
+            sb.append(i + 2 < fields.length ? ",\n" : "\n");
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Sum the peak usages of the heap pools since they were reset.
+     *
+     * @return the peak heap used, in bytes.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Sum the collections of every collector.
+     *
+     * @return the number of collections and their total time in milliseconds.
+     */
+    private static long[] gcStats() {
+        long[] stats = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            stats[0] += Math.max(0, bean.getCollectionCount());
+            stats[1] += Math.max(0, bean.getCollectionTime());
+        }
+        return stats;
+    }
+}
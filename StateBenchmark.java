@@ -0,0 +1,85 @@
+import java.util.Random;
+
+/**
+ * Compares applying blocks to a StateEngine serially with applying them in
+ * parallel, one chunk of whole groups of transactions per thread, on blocks of
+ * random transfers between many accounts and on blocks in which one hot
+ * account takes part in a fraction of the transactions. The benchmark also
+ * checks that both give the same balances and the same deltas.
+ *
+ * <pre>
+ * java StateBenchmark [seconds per measurement] [transactions per block] [accounts]
+ * </pre>
+ */
+public class StateBenchmark {
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally, the time of each measurement in seconds, the
+     *             number of transactions per block and the number of accounts.
+     */
+    public static void main(String[] args) {
+        long budget = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 1) * 1e9);
+        int perBlock = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("Blocks of %d transactions between %d accounts, %d processors%n", perBlock, accounts,
+                processors);
+        System.out.printf("%12s%14s%14s%10s%n", "hot share", "serial ms", "parallel ms", "speedup");
+        for (double hot : new double[] {0, 0.001, 0.01, 0.1}) {
+            Block block = block(new Random(42), perBlock, accounts, hot);
+            StateEngine serial = new StateEngine(1, StateEngine.PARALLEL_THRESHOLD);
+            StateEngine parallel = new StateEngine(processors, StateEngine.PARALLEL_THRESHOLD);
+            check(serial.apply(block), parallel.apply(block), serial, parallel);
+            double serialNanos = BenchmarkTimer.measure(budget, () -> serial.apply(block).size());
+            double parallelNanos = BenchmarkTimer.measure(budget, () -> parallel.apply(block).size());
+            System.out.printf("%12.3f%14.2f%14.2f%10.2f%n", hot, serialNanos / 1e6, parallelNanos / 1e6,
+                    serialNanos / parallelNanos);
+        }
+    }
+
+    /**
+     * Build a block of random transfers.
+     *
+     * @param random   is the source of the transfers.
+     * @param size     is the number of transactions.
+     * @param accounts is the number of accounts.
+     * @param hot      is the share of the transactions sent by one hot account.
+     * @return the block.
+     */
+    private static Block block(Random random, int size, int accounts, double hot) {
+        Block block = new Block();
+        for (int i = 0; i < size; i++) {
+            String sender = random.nextDouble() < hot ? "hot" : "account" + random.nextInt(accounts);
+            block.addTransaction(new Transaction(sender, "account" + random.nextInt(accounts),
+                    10000 + random.nextInt(90000), 1 + random.nextInt(20)));
+        }
+        return block;
+    }
+
+    /**
+     * Check that a block applied serially and in parallel gives the same deltas
+     * and the same balances.
+     *
+     * @param serialDelta   is the delta of the serial application.
+     * @param parallelDelta is the delta of the parallel application.
+     * @param serial        is the state the block was applied to serially.
+     * @param parallel      is the state the block was applied to in parallel.
+     */
+    private static void check(IntLongMap serialDelta, IntLongMap parallelDelta, StateEngine serial,
+            StateEngine parallel) {
+        if (serialDelta.size() != parallelDelta.size() || serial.accounts() != parallel.accounts()) {
+            throw new IllegalStateException("the deltas differ in size");
+        }
+        serialDelta.forEach((id, change) -> {
+            if (parallelDelta.get(id, change + 1) != change) {
+                throw new IllegalStateException("the delta of " + serial.accountName(id) + " differs");
+            }
+        });
+        for (int id = 0; id < serial.accounts(); id++) {
+            if (serial.balanceOf(id) != parallel.balanceOf(serial.accountName(id))) {
+                throw new IllegalStateException("the balance of " + serial.accountName(id) + " differs");
+            }
+        }
+    }
+}
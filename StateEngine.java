@@ -0,0 +1,380 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Replays the blocks of a blockchain into a map from account to balance.
+ * Account names are interned to dense int ids, so balances live in a flat
+ * long array and per-block deltas are kept in an {@link IntLongMap}.
+ * Each transaction debits its sender by the amount plus the fee and credits
+ * its receiver by the amount; the fee leaves circulation.
+ */
+public class StateEngine {
+    /**
+     * The smallest number of transactions in a block for which the block is
+     * applied in parallel, by default.
+     */
+    static final int PARALLEL_THRESHOLD = 4096;
+    /**
+     * The largest number of chunks a block is applied in.
+     */
+    private final int parallelism;
+    /**
+     * The smallest number of transactions in a block for which the block is
+     * applied in parallel.
+     */
+    private final int parallelThreshold;
+    /**
+     * Open-addressing table of interned account names, holding id + 1 per slot
+     * so that zero marks an empty slot.
+     */
+    private int[] table;
+    /**
+     * The account names indexed by id.
+     */
+    private String[] names;
+    /**
+     * The balances indexed by account id.
+     */
+    private long[] balances;
+    /**
+     * The number of interned accounts.
+     */
+    private int accounts;
+
+    /**
+     * Constructs a state engine in which every account has a zero balance and
+     * large blocks are applied on every processor.
+     */
+    public StateEngine() {
+        this(Runtime.getRuntime().availableProcessors(), PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Constructs a state engine in which every account has a zero balance.
+     *
+     * @param parallelism       the largest number of chunks a block is applied
+     *                          in; 1 applies every block serially.
+     * @param parallelThreshold the smallest number of transactions in a block
+     *                          for which the block is applied in parallel.
+     */
+    public StateEngine(int parallelism, int parallelThreshold) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        this.parallelThreshold = parallelThreshold;
+        table = new int[64];
+        names = new String[32];
+        balances = new long[32];
+    }
+
+    /**
+     * Applies every block of the blockchain in order.
+     *
+     * @param chain the blockchain to replay.
+     * @return the number of blocks applied.
+     */
+    public int replay(Blockchain chain) {
+        int count = 0;
+        for (Block block : chain) {
+            apply(block);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Applies the transactions of a block to the balances.
+     * Transactions are partitioned into groups that share no account (the
+     * connected components of the sender/receiver graph of the block). Groups
+     * touch disjoint balances, so large blocks cut the groups into at most one
+     * chunk of whole groups per thread, of about the same number of
+     * transactions, and apply the chunks in parallel without any locking. A
+     * block smaller than the threshold, or whose groups do not split into two
+     * chunks (one hot account joins every transaction into one group), is
+     * applied serially.
+     *
+     * @param block is the block to apply.
+     * @return the change of balance of every account touched by the block,
+     * keyed by account id.
+     */
+    public IntLongMap apply(Block block) {
+        int n = block.numOfTransactions();
+        int[] from = new int[n];
+        int[] to = new int[n];
+        long[] debit = new long[n];
+        long[] credit = new long[n];
+        int i = 0;
+        for (Transaction t : block) {
+            from[i] = intern(t.getSender());
+            to[i] = intern(t.getReceiver());
+            credit[i] = t.getAmount();
+            debit[i] = (long) t.getAmount() + t.getFee();
+            i++;
+        }
+
+        IntLongMap localIds = new IntLongMap(2 * n);
+        int[] ids = new int[2 * n];
+        int[] localFrom = new int[n];
+        int[] localTo = new int[n];
+        int locals = 0;
+        for (i = 0; i < n; i++) {
+            if (!localIds.containsKey(from[i])) {
+                ids[locals] = from[i];
+                localIds.put(from[i], locals++);
+            }
+            localFrom[i] = (int) localIds.get(from[i], 0);
+            if (!localIds.containsKey(to[i])) {
+                ids[locals] = to[i];
+                localIds.put(to[i], locals++);
+            }
+            localTo[i] = (int) localIds.get(to[i], 0);
+        }
+
+        int[] order;
+        int[] bounds;
+        if (n >= parallelThreshold && parallelism > 1) {
+            int[] parent = new int[locals];
+            for (i = 0; i < locals; i++) {
+                parent[i] = i;
+            }
+            for (i = 0; i < n; i++) {
+                int a = root(parent, localFrom[i]);
+                int b = root(parent, localTo[i]);
+                if (a != b) {
+                    parent[a] = b;
+                }
+            }
+            int[] componentOf = new int[locals];
+            Arrays.fill(componentOf, -1);
+            int components = 0;
+            for (i = 0; i < locals; i++) {
+                int r = root(parent, i);
+                if (componentOf[r] < 0) {
+                    componentOf[r] = components++;
+                }
+                componentOf[i] = componentOf[r];
+            }
+            int[] start = new int[components + 1];
+            int[] txComponent = new int[n];
+            for (i = 0; i < n; i++) {
+                txComponent[i] = componentOf[localFrom[i]];
+                start[txComponent[i] + 1]++;
+            }
+            for (i = 0; i < components; i++) {
+                start[i + 1] += start[i];
+            }
+            order = new int[n];
+            int[] next = start.clone();
+            for (i = 0; i < n; i++) {
+                order[next[txComponent[i]]++] = i;
+            }
+            bounds = chunks(start, components, n, parallelism);
+        } else {
+            order = null;
+            bounds = new int[] {0, n};
+        }
+
+        long[] state = balances;
+        long[] change = new long[locals];
+        int[] sequence = order;
+        int[] chunkBounds = bounds;
+        if (chunkBounds.length > 2) {
+            IntStream.range(0, chunkBounds.length - 1).parallel().forEach(c -> applyRange(state, change, ids,
+                    sequence, chunkBounds[c], chunkBounds[c + 1], localFrom, localTo, debit, credit));
+        } else {
+            applyRange(state, change, ids, null, 0, n, localFrom, localTo, debit, credit);
+        }
+
+        IntLongMap delta = new IntLongMap(locals);
+        for (i = 0; i < locals; i++) {
+            delta.put(ids[i], change[i]);
+        }
+        return delta;
+    }
+
+    /**
+     * Cuts the groups of a block into chunks of whole groups of about the same
+     * number of transactions.
+     *
+     * @param start      the position of the first transaction of each group
+     *                   in the order, followed by the number of transactions.
+     * @param components the number of groups.
+     * @param n          the number of transactions.
+     * @param chunks     the largest number of chunks.
+     * @return the positions at which the chunks start in the order, followed by
+     * the number of transactions.
+     */
+    private static int[] chunks(int[] start, int components, int n, int chunks) {
+        int target = (n + chunks - 1) / chunks;
+        int[] bounds = new int[chunks + 1];
+        int count = 0;
+        for (int c = 0; c < components && count < chunks - 1; c++) {
+            if (start[c + 1] - bounds[count] >= target) {
+                bounds[++count] = start[c + 1];
+            }
+        }
+        if (bounds[count] < n) {
+            bounds[++count] = n;
+        }
+        return Arrays.copyOf(bounds, count + 1);
+    }
+
+    /**
+     * Applies a range of transactions to the balances and to the change of
+     * balance of their accounts.
+     *
+     * @param state    the balances indexed by account id.
+     * @param change   the change of balance indexed by local account id.
+     * @param ids      the account id of each local account id.
+     * @param order    the transaction indices sorted by group, or null for the
+     *                 block order.
+     * @param begin    the first position of the range.
+     * @param end      the position after the last one of the range.
+     * @param from     the local sender id of each transaction.
+     * @param to       the local receiver id of each transaction.
+     * @param debit    the amount taken from the sender of each transaction.
+     * @param credit   the amount given to the receiver of each transaction.
+     */
+    private static void applyRange(long[] state, long[] change, int[] ids, int[] order, int begin, int end,
+            int[] from, int[] to, long[] debit, long[] credit) {
+        for (int k = begin; k < end; k++) {
+            int t = order == null ? k : order[k];
+            change[from[t]] -= debit[t];
+            change[to[t]] += credit[t];
+        }
+        for (int k = begin; k < end; k++) {
+            int t = order == null ? k : order[k];
+            state[ids[from[t]]] -= debit[t];
+            state[ids[to[t]]] += credit[t];
+        }
+    }
+
+    /**
+     * Takes a block back off the balances, undoing its apply.
+     * Accounts first seen in the block keep their ids, with a zero balance.
+     *
+     * @param delta the change of balance returned when the block was applied.
+     */
+    public void revert(IntLongMap delta) {
+        long[] state = balances;
+        delta.forEach((id, change) -> state[id] -= change);
+    }
+
+    /**
+     * Finds the representative of a set, halving the path on the way.
+     *
+     * @param parent the parent of each element.
+     * @param x      the element.
+     * @return the representative of the set containing the element.
+     */
+    private static int root(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Returns the balance of an account.
+     *
+     * @param account the name of the account.
+     * @return the balance of the account, zero if it never appeared.
+     */
+    public long balanceOf(String account) {
+        int id = idOf(account);
+        return id < 0 ? 0 : balances[id];
+    }
+
+    /**
+     * Returns the balance of an account.
+     *
+     * @param id the id of the account.
+     * @return the balance of the account.
+     */
+    public long balanceOf(int id) {
+        return balances[id];
+    }
+
+    /**
+     * Returns the id of an account without interning it.
+     *
+     * @param account the name of the account.
+     * @return the id of the account, or -1 if it never appeared.
+     */
+    public int idOf(String account) {
+        int mask = table.length - 1;
+        int slot = IntLongMap.mix(account.hashCode()) & mask;
+        while (table[slot] != 0) {
+            if (names[table[slot] - 1].equals(account)) {
+                return table[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of an account.
+     *
+     * @param id the id of the account.
+     * @return the name of the account.
+     */
+    public String accountName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the number of accounts seen so far.
+     *
+     * @return the number of accounts seen so far.
+     */
+    public int accounts() {
+        return accounts;
+    }
+
+    /**
+     * Returns the id of an account, assigning the next free one if it never
+     * appeared.
+     *
+     * @param account the name of the account.
+     * @return the id of the account.
+     */
+    private int intern(String account) {
+        int mask = table.length - 1;
+        int slot = IntLongMap.mix(account.hashCode()) & mask;
+        while (table[slot] != 0) {
+            if (names[table[slot] - 1].equals(account)) {
+                return table[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (accounts == names.length) {
+            names = Arrays.copyOf(names, accounts * 2);
+            balances = Arrays.copyOf(balances, accounts * 2);
+        }
+        int id = accounts++;
+        names[id] = account;
+        table[slot] = id + 1;
+        if (accounts * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Doubles the name table and re-inserts every account.
+     */
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < accounts; id++) {
+            int slot = IntLongMap.mix(names[id].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+}
@@ -1,7 +1,29 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Objects;
+
 /**
  * This class represents a single transaction.
  */
 public class Transaction implements Comparable<Transaction> {
+    /**
+     * Writes and reads transactions in the snapshots of a PriorityLine.
+     */
+    public static final PriorityLine.Codec<Transaction> CODEC = new PriorityLine.Codec<>() {
+        @Override
+        public void write(Transaction t, DataOutput out) throws IOException {
+            out.writeUTF(t.sender);
+            out.writeUTF(t.receiver);
+            out.writeInt(t.amount);
+            out.writeInt(t.fee);
+        }
+
+        @Override
+        public Transaction read(DataInput in) throws IOException {
+            return new Transaction(in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+        }
+    };
     /**
      * The sender.
      */
@@ -43,6 +65,33 @@ public class Transaction implements Comparable<Transaction> {
         return String.format("%s %s %d %d", sender, receiver, amount, fee);
     }
 
+    /**
+     * Getter for sender.
+     *
+     * @return sender.
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * Getter for receiver.
+     *
+     * @return receiver.
+     */
+    public String getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * Getter for amount.
+     *
+     * @return amount.
+     */
+    public int getAmount() {
+        return amount;
+    }
+
     /**
      * Getter for fee.
      *
@@ -70,4 +119,33 @@ public class Transaction implements Comparable<Transaction> {
             return 0;
         }
     }
+
+    /**
+     * Returns true if the other object is a transaction with the same sender,
+     * receiver, amount and fee. Unlike compareTo, which only orders by fee.
+     *
+     * @param o the object to be compared.
+     * @return true if the other object is the same transaction.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Transaction)) {
+            return false;
+        }
+        Transaction t = (Transaction) o;
+        return amount == t.amount && fee == t.fee && sender.equals(t.sender) && receiver.equals(t.receiver);
+    }
+
+    /**
+     * Returns a hash code consistent with equals.
+     *
+     * @return the hash code of the transaction.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(sender, receiver, amount, fee);
+    }
 }
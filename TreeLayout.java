@@ -0,0 +1,17 @@
+/**
+ * An enum class that represents the two shapes a Merkle Tree can take when
+ * the number of transactions is not a power of 2.
+ */
+public enum TreeLayout {
+    /**
+     * The original layout. Dummy leaves are added until the number of leaves
+     * is a power of 2 (and at least 2), so the tree is perfect.
+     */
+    PADDED,
+    /**
+     * No dummy leaves. When a level has an odd number of nodes, the last one is
+     * promoted unchanged to the level above, so a tree of n leaves has exactly
+     * n - 1 inner nodes.
+     */
+    PROMOTED;
+}
@@ -1,7 +1,8 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Scanner;
-import java.security.MessageDigest;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -25,13 +26,7 @@ public final class Utilities {
                 String line = sc.nextLine();
                 if(line.isEmpty())
                     continue;
-                String[] arr = line.split(" ");
-                String sender = arr[0];
-                String receiver = arr[1];
-                int amount = Integer.parseInt(arr[2]);
-                int fee = Integer.parseInt(arr[3]);
-                Transaction t = new Transaction(sender, receiver, amount, fee);
-                pq.enqueue(t);
+                pq.enqueue(parseTransaction(line));
             }
             sc.close();
             return pq;
@@ -40,6 +35,26 @@ public final class Utilities {
         }
     }
 
+    /**
+     * Parses a transaction from its string representation: the sender, the
+     * receiver, the amount and the fee separated by single spaces. Any further
+     * fields are ignored.
+     *
+     * @param line is the string representation of the transaction.
+     * @return the transaction.
+     */
+    public static Transaction parseTransaction(String line) {
+        String[] arr = line.split(" ");
+        if (arr.length < 4) {
+            throw new IllegalArgumentException("not a transaction: " + line);
+        }
+        String sender = arr[0];
+        String receiver = arr[1];
+        int amount = Integer.parseInt(arr[2]);
+        int fee = Integer.parseInt(arr[3]);
+        return new Transaction(sender, receiver, amount, fee);
+    }
+
     /**
      * Verifies if a transaction is contained in a block.
      *
@@ -71,30 +86,227 @@ public final class Utilities {
     }
 
     /**
-     * SHA-256 cryptographic hash function for a single input.
-     * 
-     * @param input is the input string.
-     * @return the hash code of the input string.
+     * Verifies if a transaction is contained in a block.
+     * Hash the transaction with the scheme and the hash algorithm recorded in
+     * the proof, then climb one level at a time, hashing it with the next
+     * sibling on the left or on the right according to the bits of the leaf
+     * index. Levels where the node has no sibling were promoted and are
+     * skipped. Compare the result to the root hash of the block.
+     * The proof is left unchanged.
+     * The leaf count of the proof comes from the prover and is not committed
+     * to by the root hash: since a promoted level is hashed as is, another
+     * count can put the same siblings at another leaf index. So this binds the
+     * transaction to the block, but not its position; callers that rely on the
+     * position must check the leaf count against the block, as the overload
+     * that takes the block does.
+     *
+     * @param t             is the transaction that we want to verify it's contained
+     *                      in a certain block.
+     * @param proof         is the proof extracted with the method
+     *                      extractMerkleProof.
+     * @param blockRootHash is the root hash code stored in the respective block.
+     * @return true if the transaction is verified, false otherwise.
      */
-    public static String cryptographicHashFunction(String input) {
-        StringBuilder hexString = null;
+    public static boolean verifyTransaction(Transaction t, MerkleProof proof, String blockRootHash) {
+        if (proof == null || blockRootHash == null || proof.leafIndex() < 0
+                || proof.leafIndex() >= proof.leafCount()) {
+            return false;
+        }
+        int expected = 0;
+        for (int width = proof.leafCount(), index = proof.leafIndex(); width > 1; width = (width + 1) >> 1) {
+            if ((index ^ 1) < width) {
+                expected++;
+            }
+            index >>= 1;
+        }
+        if (proof.siblings().size() != expected) {
+            return false;
+        }
 
+        HashFunction function;
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-            hexString = new StringBuilder(2 * encodedhash.length);
-            for (int i = 0; i < encodedhash.length; i++) {
-                String hex = Integer.toHexString(0xff & encodedhash[i]);
-                if (hex.length() == 1) {
-                    hexString.append('0');
+            function = HashFunctions.forId(proof.algorithm());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        HashScheme scheme = proof.scheme();
+        String parent = scheme.leafHash(function, t.toString());
+        Iterator<String> siblings = proof.siblings().iterator();
+        int index = proof.leafIndex();
+        for (int width = proof.leafCount(); width > 1; width = (width + 1) >> 1) {
+            if ((index ^ 1) < width) {
+                if ((index & 1) == 0) {
+                    parent = scheme.nodeHash(function, parent, siblings.next());
+                } else {
+                    parent = scheme.nodeHash(function, siblings.next(), parent);
+                }
+            }
+            index >>= 1;
+        }
+        return parent.equals(blockRootHash);
+    }
+
+    /**
+     * Verifies if a transaction is contained in a block at the position given
+     * by the proof. The leaf count of the proof must be that of the tree of the
+     * block in the layout of its chain, which binds the leaf index to the root
+     * hash of the block.
+     *
+     * @param t      is the transaction that we want to verify it's contained
+     *               in the block.
+     * @param proof  is the proof extracted with the method extractMerkleProof.
+     * @param block  is the block, whose root hash and number of transactions
+     *               are used.
+     * @param layout is the shape of the Merkle Tree of the block.
+     * @return true if the transaction is verified at its index, false
+     * otherwise.
+     */
+    public static boolean verifyTransaction(Transaction t, MerkleProof proof, Block block, TreeLayout layout) {
+        return proof != null && proof.leafCount() == MerkleTree.leafCount(block.numOfTransactions(), layout)
+                && verifyTransaction(t, proof, block.getRootHash());
+    }
+
+    /**
+     * Verifies if several transactions are contained in a block at the
+     * positions given by a multiproof, whose leaf count must be that of the
+     * tree of the block in the layout of its chain.
+     *
+     * @param transactions is the transactions, in the order the proof was
+     *                     extracted for.
+     * @param proof        is the multiproof extracted with the method
+     *                     extractMultiproof of the Merkle Tree.
+     * @param block        is the block, whose root hash and number of
+     *                     transactions are used.
+     * @param layout       is the shape of the Merkle Tree of the block.
+     * @return true if every transaction is verified at its index, false
+     * otherwise.
+     */
+    public static boolean verifyTransactions(Transaction[] transactions, MerkleMultiproof proof, Block block,
+            TreeLayout layout) {
+        return proof != null && proof.leafCount() == MerkleTree.leafCount(block.numOfTransactions(), layout)
+                && verifyTransactions(transactions, proof, block.getRootHash());
+    }
+
+    /**
+     * Verifies if several transactions are contained in a block with a single
+     * multiproof. The leaf hashes are sorted by position, then each level is
+     * rebuilt from left to right: two proven siblings are hashed together, a
+     * proven node without a proven sibling is hashed with the next hash code of
+     * the proof, and the last node of an odd level is promoted unchanged.
+     * As with single proofs, the leaf count is not committed to by the root
+     * hash, so only the overload that takes the block binds the positions.
+     *
+     * @param transactions  is the transactions, in the order the proof was
+     *                      extracted for.
+     * @param proof         is the multiproof extracted with the method
+     *                      extractMultiproof of the Merkle Tree.
+     * @param blockRootHash is the root hash code stored in the respective block.
+     * @return true if every transaction is verified, false otherwise.
+     */
+    public static boolean verifyTransactions(Transaction[] transactions, MerkleMultiproof proof,
+            String blockRootHash) {
+        if (proof == null || blockRootHash == null || transactions.length == 0) {
+            return false;
+        }
+        int[] leafIndices = proof.leafIndices();
+        int leafCount = proof.leafCount();
+        if (leafIndices.length != transactions.length) {
+            return false;
+        }
+        HashFunction function;
+        try {
+            function = HashFunctions.forId(proof.algorithm());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        HashScheme scheme = proof.scheme();
+        String[] leafHashes = new String[transactions.length];
+        for (int i = 0; i < leafHashes.length; i++) {
+            leafHashes[i] = scheme.leafHash(function, transactions[i].toString());
+        }
+
+        Integer[] order = new Integer[leafIndices.length];
+        for (int i = 0; i < order.length; i++) {
+            if (leafIndices[i] < 0 || leafIndices[i] >= leafCount) {
+                return false;
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(leafIndices[a], leafIndices[b]));
+        int[] positions = new int[order.length];
+        String[] hashes = new String[order.length];
+        int count = 0;
+        for (Integer i : order) {
+            if (count > 0 && positions[count - 1] == leafIndices[i]) {
+                if (!hashes[count - 1].equals(leafHashes[i])) {
+                    return false;
+                }
+            } else {
+                positions[count] = leafIndices[i];
+                hashes[count++] = leafHashes[i];
+            }
+        }
+
+        Iterator<String> siblings = proof.hashes().iterator();
+        for (int width = leafCount; width > 1; width = (width + 1) >> 1) {
+            int parents = 0;
+            for (int i = 0; i < count; i++) {
+                int position = positions[i];
+                int sibling = position ^ 1;
+                String parent = hashes[i];
+                if (sibling < width) {
+                    if ((position & 1) == 0 && i + 1 < count && positions[i + 1] == sibling) {
+                        parent = scheme.nodeHash(function, parent, hashes[++i]);
+                    } else if (!siblings.hasNext()) {
+                        return false;
+                    } else if ((position & 1) == 0) {
+                        parent = scheme.nodeHash(function, parent, siblings.next());
+                    } else {
+                        parent = scheme.nodeHash(function, siblings.next(), parent);
+                    }
                 }
-                hexString.append(hex);
+                positions[parents] = position >> 1;
+                hashes[parents++] = parent;
             }
-        } catch (Exception e) {
-            System.err.println(e.getMessage());
+            count = parents;
         }
+        return !siblings.hasNext() && hashes[0].equals(blockRootHash);
+    }
 
-        return hexString.toString();
+    /**
+     * Verifies if a transaction is contained in a blockchain.
+     * The root hash of the block is first checked against the root hash of the
+     * chain, then the transaction is checked against the root hash of the block.
+     * The block is bound to its position in the chain, but the transaction only
+     * to its block, not to its position in it.
+     *
+     * @param t             is the transaction that we want to verify it's contained
+     *                      in the chain.
+     * @param proof         is the proof extracted with the method extractProof of
+     *                      the blockchain.
+     * @param chainRootHash is the root hash of the blockchain.
+     * @return true if the transaction is verified, false otherwise.
+     */
+    public static boolean verifyTransaction(Transaction t, ChainProof proof, String chainRootHash) {
+        if (proof == null || !MerkleMountainRange.verify(proof.blockRootHash(), proof.blockProof(), chainRootHash)) {
+            return false;
+        }
+        return verifyTransaction(t, proof.transactionProof(), proof.blockRootHash());
+    }
+
+    /**
+     * Hexadecimal digits used to encode hash codes.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * SHA-256 cryptographic hash function for a single input.
+     * 
+     * @param input is the input string.
+     * @return the hash code of the input string.
+     */
+    public static String cryptographicHashFunction(String input) {
+        return toHex(sha256(input));
     }
 
     /**
@@ -106,25 +318,72 @@ public final class Utilities {
      * @return the hash code of the two input strings.
      */
     public static String cryptographicHashFunction(String input1, String input2) {
-        StringBuilder hexString = null;
+        byte[] encodedhash1 = sha256(input1);
+        byte[] encodedhash2 = sha256(input2);
+        for (int i = 0; i < encodedhash1.length; i++) {
+            encodedhash1[i] ^= encodedhash2[i];
+        }
+        return toHex(encodedhash1);
+    }
 
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash1 = digest.digest(input1.getBytes(StandardCharsets.UTF_8));
-            byte[] encodedhash2 = digest.digest(input2.getBytes(StandardCharsets.UTF_8));
-            hexString = new StringBuilder(2 * encodedhash1.length);
-            for (int i = 0; i < encodedhash1.length; i++) {
-                String hex = Integer.toHexString(0xff & (encodedhash1[i] ^ encodedhash2[i]));
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-        } catch (Exception e) {
-            System.err.println(e.getMessage());
+    /**
+     * Returns the raw SHA-256 digest of the UTF-8 bytes of a string.
+     *
+     * @param input is the input string.
+     * @return the 32-byte digest of the input string.
+     */
+    private static byte[] sha256(String input) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        return HashFunctions.SHA_256.digest(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decodes a hexadecimal string into a buffer.
+     *
+     * @param hex    is the hexadecimal string.
+     * @param out    is the buffer to write to.
+     * @param offset is the position in the buffer of the first decoded byte.
+     */
+    static void fromHex(String hex, byte[] out, int offset) {
+        int length = hex.length();
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("odd length hash code: " + hex);
+        }
+        for (int i = 0; i < length; i += 2) {
+            out[offset++] = (byte) ((hexValue(hex.charAt(i)) << 4) | hexValue(hex.charAt(i + 1)));
         }
+    }
 
-        return hexString.toString();
+    /**
+     * Returns the value of a hexadecimal digit.
+     *
+     * @param c is the hexadecimal digit.
+     * @return the value of the digit.
+     */
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw new IllegalArgumentException("not a hexadecimal digit: " + c);
+    }
+
+    /**
+     * Encodes bytes as a lowercase hexadecimal string.
+     *
+     * @param bytes is the bytes to encode.
+     * @return the hexadecimal encoding of the bytes.
+     */
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
     }
 
 }